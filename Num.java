@@ -1,11 +1,26 @@
 package sxv176330;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static sxv176330.UtilClass.*;
 
@@ -75,6 +90,36 @@ public class Num implements Comparable<Num> {
      */
     private int len;  // actual number of elements of array that are used;  number is stored in arr[0..len-1]
 
+    /**
+     * Limbs of {@link NumKernels#BASE} when the Num is backed by them instead of digits,
+     * arr is null in that case and the digits are materialized only when a digit level
+     * operation needs them. The limbs are off-heap when the Num has an arena.
+     */
+    private LongBuffer packed;
+
+    private NumArena arena;
+
+    /**
+     * Set when the magnitude is below 10^18, smallMagnitude then holds it so that
+     * arithmetic on two compact Nums runs on longs. The magnitude is kept separate from
+     * the sign so that flipping isNegative keeps the two views in sync. A compact Num
+     * made from a long has no digits, arr is null and they are built only when a digit
+     * level operation needs them.
+     */
+    private boolean compact;
+
+    private long smallMagnitude;
+
+    /**
+     * Bound of the magnitude of a compact Num, 10^18
+     */
+    private static final long COMPACT_LIMIT = 1_000_000_000_000_000_000L;
+
+    /**
+     * Set on the instances of the valueOf cache, convertBase never modifies them
+     */
+    private boolean shared;
+
     /**
      * Zero Num represents the "0" in integer
      */
@@ -86,6 +131,34 @@ public class Num implements Comparable<Num> {
 
     public static final Num ONE = new Num("1");
 
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+
+    /**
+     * Cache of the Nums from {@code CACHE_LOW} to {@code CACHE_HIGH} returned by valueOf
+     */
+    private static final Num[] SMALL_VALUES = new Num[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < SMALL_VALUES.length; i++) {
+            long x = i + CACHE_LOW;
+            Num num = x == 0 ? ZERO : x == 1 ? ONE : new Num(x);
+            num.shared = true;
+            SMALL_VALUES[i] = num;
+        }
+    }
+
+    /**
+     * Number of digits above which product packs the digits in limbs of
+     * {@link NumKernels#BASE} and uses the limb kernels, see {@link NumTuning}
+     */
+    static int packedProductThreshold = NumTuning.threshold("num.packedProductThreshold", 18);
+
+    /**
+     * Number of digits of the dividend from which divide uses the long division of
+     * {@link NumKernels} instead of the binary search, see {@link NumTuning}
+     */
+    static int divideThreshold = NumTuning.threshold("num.divideThreshold", 40);
 
     public Num() {
     }
@@ -95,6 +168,13 @@ public class Num implements Comparable<Num> {
         this.arr = arr;
         this.len = removeTrailingZeros(arr);
         this.isNegative = sign;
+        if (base == 10 && this.len < 18) {
+            long magnitude = 0;
+            for (int i = this.len; i >= 0; i--)
+                magnitude = magnitude * 10 + arr[i];
+            this.compact = true;
+            this.smallMagnitude = magnitude;
+        }
     }
 
     /**
@@ -113,6 +193,8 @@ public class Num implements Comparable<Num> {
         this.arr = num.arr;
         this.isNegative = num.isNegative;
         this.len = num.len;
+        this.compact = num.compact;
+        this.smallMagnitude = num.smallMagnitude;
     }
 
     private Num copyStringToNumInReverse(String s) {
@@ -136,9 +218,54 @@ public class Num implements Comparable<Num> {
      */
 
     public Num(long x) {
-        this(Long.toString(x));
-        this.len = removeTrailingZeros(this.arr);
-        this.convertBase(1_000_000_000);
+        this.base = 10;
+        this.isNegative = x < 0;
+        if (x > -COMPACT_LIMIT && x < COMPACT_LIMIT) {
+            this.compact = true;
+            this.smallMagnitude = Math.abs(x);
+            // len is the index of the most significant digit
+            for (long v = this.smallMagnitude / 10; v != 0; v /= 10)
+                this.len++;
+        } else {
+            this.arr = digitsOf(x);
+            this.len = removeTrailingZeros(this.arr);
+        }
+    }
+
+    /**
+     * @return base 10 digits of the magnitude of x in the little endian order
+     */
+
+    private static long[] digitsOf(long x) {
+        long[] arr = new long[20];
+        int i = 0;
+        do {
+            arr[i++] = Math.abs(x % 10);
+            x /= 10;
+        } while (x != 0);
+        return arr;
+    }
+
+    /**
+     * Returns a Num whose value is equal to x. Values from -128 to 1024 are cached,
+     * so frequently used constants are not allocated again.
+     *
+     * @param x value of the Num
+     * @return Num of x
+     */
+
+    public static Num valueOf(long x) {
+        if (x >= CACHE_LOW && x <= CACHE_HIGH)
+            return SMALL_VALUES[(int) (x - CACHE_LOW)];
+        return new Num(x);
+    }
+
+    /**
+     * @return signed value of a compact Num
+     */
+
+    private long small() {
+        return this.isNegative ? -this.smallMagnitude : this.smallMagnitude;
     }
 
     /**
@@ -150,6 +277,17 @@ public class Num implements Comparable<Num> {
      */
 
     public static Num add(Num a, Num b) {
+        if (a.compact && b.compact) {
+            try {
+                return valueOf(Math.addExact(a.small(), b.small()));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
+        if (b.compact && a.base == 10)
+            return add(a, b.small());
+        if (a.compact && b.base == 10)
+            return add(b, a.small());
         if (a.checkNumbers(b) < 0) {
             Num temp = a;
             a = b;
@@ -163,27 +301,38 @@ public class Num implements Comparable<Num> {
     }
 
     public static Num calcSum(Num a, Num b) {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        a = a.unpacked();
+        b = b.unpacked();
         int len = Math.max(a.len, b.len) + 1;
-        long[] res = new long[len * 2];
-        long carry = 0;
-        int i = 0, j = 0, l = 0;
-        while (i <= a.len || j <= b.len) {
-            long sum = (i <= a.len ? a.arr[i] : 0) + (j <= b.len ? b.arr[j] : 0) + carry;
-            res[l] = sum % a.base;
-            carry = sum / a.base;
-            l++;
-            j++;
-            i++;
-        }
+        long[] res = new long[len + 1];
+        if (NumKernels.VECTORIZED && Math.min(a.len, b.len) >= NumKernels.vectorThreshold) {
+            Num x = a.len >= b.len ? a : b;
+            Num y = x == a ? b : a;
+            res[x.len + 1] = NumVectorKernels.add(x.arr, x.len + 1, y.arr, y.len + 1, a.base, res);
+        } else {
+            long carry = 0;
+            int i = 0, j = 0, l = 0;
+            while (i <= a.len || j <= b.len) {
+                long sum = (i <= a.len ? a.arr[i] : 0) + (j <= b.len ? b.arr[j] : 0) + carry;
+                res[l] = sum % a.base;
+                carry = sum / a.base;
+                l++;
+                j++;
+                i++;
+            }
 
-        while (carry != 0) {
-            res[l] += carry;
-            carry = res[l] / a.base;
-            res[l] %= a.base;
-            l++;
+            while (carry != 0) {
+                res[l] += carry;
+                carry = res[l] / a.base;
+                res[l] %= a.base;
+                l++;
+            }
         }
 
         Num ans = new Num(res, a.base, a.isNegative);
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.SUM, start, len, (long) res.length * Long.BYTES);
         return ans.isZero() ? ZERO : ans;
     }
 
@@ -196,46 +345,255 @@ public class Num implements Comparable<Num> {
      */
 
     public static Num subtract(Num a, Num b) {
-        if (a.checkNumbers(b) < 0) {
+        if (a.compact && b.compact) {
+            try {
+                return valueOf(Math.subtractExact(a.small(), b.small()));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
+        if (b.compact && a.base == 10)
+            return subtract(a, b.small());
+        if (a.compact && b.base == 10)
+            return addSmall(b, a.smallMagnitude, !a.isNegative, true);
+        boolean swapped = a.checkNumbers(b) < 0;
+        if (swapped) {
             Num temp = a;
             a = b;
             b = temp;
         }
+        Num ans;
         if (a.isNegative != b.isNegative) {
-            return calcSum(a, b).convertBase10();
+            ans = calcSum(a, b).convertBase10();
         } else {
-            return calcDiff(a, b).convertBase10();
+            ans = calcDiff(a, b).convertBase10();
         }
+        // the kernels take the sign of the first operand, b - a has the opposite sign
+        if (swapped && !ans.isZero())
+            ans.isNegative = !ans.isNegative;
+        return ans;
     }
 
     public static Num calcDiff(Num a, Num b) {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        a = a.unpacked();
+        b = b.unpacked();
         int i = 0, j = 0, l = 0;
         int len = Math.max(a.len, b.len) + 1;
-        long[] res = new long[len * 2];
+        long[] res = new long[len];
 
+        long borrow = 0;
         while (i <= a.len || j <= b.len) {
-            long a1, b1;
-            a1 = (i <= a.len) ? a.arr[i] : 0;
-            b1 = (j <= b.len) ? b.arr[j] : 0;
-            if (a1 < b1) {
-                int next = i + 1;
-                while (next < a.arr.length - 1 && a.arr[next] == 0) {
-                    a.arr[next++] = 9;
-                }
-                a.arr[next] -= 1;
-                a.arr[i] += a.base;
-                a1 = a.arr[i];
-            }
-            res[l] = a1 - b1;
+            long a1 = (i <= a.len) ? a.arr[i] : 0;
+            long b1 = (j <= b.len) ? b.arr[j] : 0;
+            long diff = a1 - b1 - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res[l] = diff + borrow * a.base;
             l++;
             j++;
             i++;
         }
 
         Num ans = new Num(res, a.base, a.isNegative);
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.DIFFERENCE, start, len, (long) res.length * Long.BYTES);
+        return ans.isZero() ? ZERO : ans;
+    }
+
+    /**
+     * Largest magnitude of a long operand handled in one pass over the digits, the
+     * running product or remainder then stays below {@code 10 * SINGLE_PASS_LIMIT}
+     */
+    private static final long SINGLE_PASS_LIMIT = Long.MAX_VALUE / 10;
+
+    /**
+     * Sum of a Num and a long in one pass over the digits of a, b is never boxed in a Num
+     *
+     * @return {@code a + b}
+     */
+
+    public static Num add(Num a, long b) {
+        if (a.compact) {
+            try {
+                return valueOf(Math.addExact(a.small(), b));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
+        if (b == Long.MIN_VALUE || a.base != 10)
+            return add(a, valueOf(b));
+        return addSmall(a, Math.abs(b), b < 0, false);
+    }
+
+    /**
+     * Difference of a Num and a long in one pass over the digits of a
+     *
+     * @return {@code a - b}
+     */
+
+    public static Num subtract(Num a, long b) {
+        if (a.compact) {
+            try {
+                return valueOf(Math.subtractExact(a.small(), b));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
+        if (b == Long.MIN_VALUE || a.base != 10)
+            return subtract(a, valueOf(b));
+        return addSmall(a, Math.abs(b), b > 0, false);
+    }
+
+    /**
+     * {@code a + m} or {@code a - m} on the base 10 digits of a
+     *
+     * @param m        magnitude of the long operand
+     * @param negative sign of the long operand
+     * @param negate   whether the result is negated, so {@code m - a} is computed as well
+     */
+
+    private static Num addSmall(Num a, long m, boolean negative, boolean negate) {
+        a = a.unpacked();
+        int n = a.len + 1;
+        long[] res = new long[Math.max(n, 19) + 1];
+        boolean sign;
+        if (a.isNegative == negative) {
+            long carry = m;
+            int i = 0;
+            for (; i < n && carry != 0; i++) {
+                long t = a.arr[i] + carry % 10;
+                res[i] = t % 10;
+                carry = carry / 10 + t / 10;
+            }
+            System.arraycopy(a.arr, i, res, i, n - i);
+            for (i = Math.max(i, n); carry != 0; i++) {
+                res[i] = carry % 10;
+                carry /= 10;
+            }
+            sign = a.isNegative;
+        } else {
+            // a magnitude of 19 digits still fits in an unsigned long
+            long magnitude = 0;
+            for (int i = n - 1; n <= 19 && i >= 0; i--)
+                magnitude = magnitude * 10 + a.arr[i];
+            if (n <= 19 && Long.compareUnsigned(magnitude, m) < 0) {
+                Num ans = valueOf(m - magnitude);
+                if (negative)
+                    ans = negate(ans);
+                return negate ? negate(ans) : ans;
+            }
+            long borrow = 0;
+            int i = 0;
+            for (long rest = m; i < n && (rest != 0 || borrow != 0); i++) {
+                long t = a.arr[i] - rest % 10 - borrow;
+                rest /= 10;
+                borrow = t < 0 ? 1 : 0;
+                res[i] = t + borrow * 10;
+            }
+            System.arraycopy(a.arr, i, res, i, n - i);
+            sign = a.isNegative;
+        }
+        Num ans = new Num(res, 10, sign != negate);
+        return ans.isZero() ? ZERO : ans;
+    }
+
+    /**
+     * Product of a Num and a long in one pass over the digits of a
+     *
+     * @return {@code a * b}
+     */
+
+    public static Num product(Num a, long b) {
+        if (a.compact) {
+            try {
+                return valueOf(Math.multiplyExact(a.small(), b));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
+        if (b == 0 || a.isZero())
+            return ZERO;
+        if (b == Long.MIN_VALUE || Math.abs(b) > SINGLE_PASS_LIMIT || a.base != 10)
+            return prod(a, valueOf(b)).convertBase10();
+        a = a.unpacked();
+        long m = Math.abs(b);
+        long[] res = new long[a.len + 21];
+        long carry = 0;
+        int i = 0;
+        for (; i <= a.len; i++) {
+            long t = a.arr[i] * m + carry;
+            res[i] = t % 10;
+            carry = t / 10;
+        }
+        for (; carry != 0; i++) {
+            res[i] = carry % 10;
+            carry /= 10;
+        }
+        return new Num(res, 10, a.isNegative != (b < 0));
+    }
+
+    /**
+     * Quotient of a Num by a long in one pass over the digits of a, truncated towards
+     * zero like {@link #divide(Num, Num)}
+     *
+     * @return {@code a / b}
+     * @throws ArithmeticException if b is zero
+     */
+
+    public static Num divide(Num a, long b) {
+        if (b == 0)
+            throw new ArithmeticException("Division by zero");
+        if (a.compact)
+            return valueOf(a.small() / b);
+        if (b == Long.MIN_VALUE || Math.abs(b) > SINGLE_PASS_LIMIT || a.base != 10)
+            return calcDivide(a, valueOf(b)).convertBase10();
+        a = a.unpacked();
+        long[] res = new long[a.len + 1];
+        divideDigits(a.arr, a.len, Math.abs(b), res);
+        Num ans = new Num(res, 10, a.isNegative != (b < 0));
         return ans.isZero() ? ZERO : ans;
     }
 
+    /**
+     * Remainder of a Num by a positive long in one pass over the digits of a, with the
+     * sign of a like {@link #mod(Num, Num)}
+     *
+     * @return {@code a % b}, null if b is not positive
+     */
+
+    public static Num mod(Num a, long b) {
+        if (b <= 0)
+            return null;
+        if (a.compact)
+            return valueOf(a.small() % b);
+        if (b > SINGLE_PASS_LIMIT || a.base != 10)
+            return mod(a, valueOf(b));
+        a = a.unpacked();
+        long rem = 0;
+        for (int i = a.len; i >= 0; i--)
+            rem = (rem * 10 + a.arr[i]) % b;
+        return valueOf(a.isNegative ? -rem : rem);
+    }
+
+    /**
+     * Divide the digits {@code arr[0..len]} of the given base by m, from the most
+     * significant one
+     *
+     * @param m   divisor, at most {@link #SINGLE_PASS_LIMIT} when the base is 10
+     * @param res room for len + 1 digits of the quotient
+     * @return the remainder
+     */
+
+    private static long divideDigits(long[] arr, int len, long m, long[] res) {
+        long rem = 0;
+        for (int i = len; i >= 0; i--) {
+            long t = rem * 10 + arr[i];
+            res[i] = t / m;
+            rem = t - res[i] * m;
+        }
+        return rem;
+    }
+
     /**
      * Product of a and b using O(n*2) algorithm
      *
@@ -246,8 +604,19 @@ public class Num implements Comparable<Num> {
      */
 
     public static Num product(Num a, Num b) {
+        if (a.compact && b.compact) {
+            try {
+                return valueOf(Math.multiplyExact(a.small(), b.small()));
+            } catch (ArithmeticException overflow) {
+                // continue with the digits
+            }
+        }
         if (a.isZero() || b.isZero())
             return ZERO;
+        if (b.compact && a.base == 10)
+            return product(a, b.small());
+        if (a.compact && b.base == 10)
+            return product(b, a.small());
 
         if (a.len < b.len) {
             Num temp = a;
@@ -258,8 +627,21 @@ public class Num implements Comparable<Num> {
     }
 
     public static Num prod(Num a, Num b) {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        Num ans;
+        if (a.base == 10 && b.base == 10 && Math.min(a.len, b.len) >= packedProductThreshold)
+            ans = fromLimbs(NumKernels.multiply(a.toLimbs(), b.toLimbs()), a.isNegative != b.isNegative);
+        else
+            ans = schoolbookProduct(a.unpacked(), b.unpacked());
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.PRODUCT, start, Math.max(a.len, b.len) + 1,
+                    (long) ans.arr.length * Long.BYTES);
+        return ans.isZero() ? ZERO : ans;
+    }
+
+    private static Num schoolbookProduct(Num a, Num b) {
         int arrsize = a.len + b.len + 1;
-        long[] result = new long[arrsize * 2];
+        long[] result = new long[arrsize + 1];
         int start = 0;
         long carry = 0;
         int len;
@@ -278,10 +660,65 @@ public class Num implements Comparable<Num> {
             start++;
             carry = 0;
         }
-        Num ans = new Num(result, a.base(), a.isNegative != b.isNegative);
-        return ans.isZero() ? ZERO : ans;
+        return new Num(result, a.base(), a.isNegative != b.isNegative);
+    }
+
+
+    /**
+     * Fused multiply-add, the product is accumulated into the limbs of c without
+     * being normalized and converted on its own
+     *
+     * @return {@code a * b + c}
+     */
+
+    public static Num fma(Num a, Num b, Num c) {
+        return dot(new Num[]{a, c}, new Num[]{b, ONE});
     }
 
+    /**
+     * Dot product. All partial products are summed into one wide buffer per sign with
+     * {@link NumKernels#multiplyAccumulate}, carries are propagated in blocks of rows and
+     * the result is normalized and converted once.
+     *
+     * @return {@code xs[0] * ys[0] + ... + xs[n-1] * ys[n-1]}, Zero for empty arrays
+     * @throws IllegalArgumentException if the arrays have different lengths
+     */
+
+    public static Num dot(Num[] xs, Num[] ys) {
+        if (xs.length != ys.length)
+            throw new IllegalArgumentException("Dot product of arrays with different lengths");
+        long sum = 0;
+        int i = 0;
+        try {
+            for (; i < xs.length && xs[i].compact && ys[i].compact; i++)
+                sum = Math.addExact(sum, Math.multiplyExact(xs[i].small(), ys[i].small()));
+            if (i == xs.length)
+                return valueOf(sum);
+        } catch (ArithmeticException overflow) {
+            // continue with the limbs from the term that overflowed
+        }
+        long[][] x = new long[xs.length - i][];
+        long[][] y = new long[xs.length - i][];
+        int width = 0;
+        for (int k = i; k < xs.length; k++) {
+            x[k - i] = xs[k].toLimbs();
+            y[k - i] = ys[k].toLimbs();
+            width = Math.max(width, x[k - i].length + y[k - i].length);
+        }
+        // the sum of up to 2^31 products and the long prefix needs three more limbs
+        long[] positive = new long[width + 3];
+        long[] negative = new long[width + 3];
+        long[] prefix = sum == Long.MIN_VALUE ? NumKernels.add(NumKernels.valueOf(Long.MAX_VALUE), NumKernels.valueOf(1))
+                : NumKernels.valueOf(Math.abs(sum));
+        NumKernels.addInto(sum < 0 ? negative : positive, prefix, 0);
+        for (int k = i; k < xs.length; k++)
+            NumKernels.multiplyAccumulate(xs[k].isNegative != ys[k].isNegative ? negative : positive, x[k - i], y[k - i]);
+        long[] p = NumKernels.trim(positive);
+        long[] n = NumKernels.trim(negative);
+        if (NumKernels.compare(p, n) >= 0)
+            return fromLimbs(NumKernels.subtract(p, n), false);
+        return fromLimbs(NumKernels.subtract(n, p), true);
+    }
 
     /**
      * power of a^n using divide and conquer
@@ -298,6 +735,7 @@ public class Num implements Comparable<Num> {
         }
         Num temp = power(a, n / 2, cached);
         cached.put(n / 2, temp);
+        NumDeadline.checkpoint();
         if (n % 2 == 0)
             return multiply.apply(temp, temp);
         else
@@ -318,13 +756,216 @@ public class Num implements Comparable<Num> {
     }
 
     /**
-     * Divide the given two numbers a and b using Binary Search
+     * Factorial of n using the prime swing algorithm:
+     * {@code n! = ((n/2)!)^2 * swing(n)}, where swing(n) is built from the prime
+     * factorization found by the sieve and multiplied by binary splitting.
+     *
+     * @param n non negative number
+     * @return {@code n!}
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num factorial(int n) {
+        if (n < 0)
+            throw new ArithmeticException("Factorial of a negative number");
+        int[] primes = NumKernels.primesUpTo(n);
+        return fromLimbs(factorial(n, primes), false);
+    }
+
+    private static long[] factorial(int n, int[] primes) {
+        if (n < 2)
+            return NumKernels.valueOf(1);
+        long[] half = factorial(n / 2, primes);
+        return NumKernels.multiply(NumKernels.square(half), swing(n, primes));
+    }
+
+    /**
+     * swing(n) = n! / ((n/2)!)^2, the exponent of a prime p is the number of odd
+     * terms in n/p, n/p^2, ... so every prime power p^e is at most n.
+     */
+
+    private static long[] swing(int n, int[] primes) {
+        long[] factors = new long[primes.length];
+        int count = 0;
+        for (int p : primes) {
+            if (p > n)
+                break;
+            long pe = 1;
+            for (long q = n / p; q > 0; q /= p) {
+                if ((q & 1) == 1)
+                    pe *= p;
+            }
+            if (pe > 1)
+                factors[count++] = pe;
+        }
+        return NumKernels.productOf(factors, count);
+    }
+
+    /**
+     * Binomial coefficient n choose k. The exponent of every prime is computed with
+     * Legendre's formula, so no division is needed.
+     *
+     * @return {@code n! / (k! * (n-k)!)}, ZERO if k is outside [0, n]
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num binomial(int n, int k) {
+        if (n < 0)
+            throw new ArithmeticException("Binomial of a negative number");
+        if (k < 0 || k > n)
+            return ZERO;
+        int[] primes = NumKernels.primesUpTo(n);
+        long[] factors = new long[primes.length];
+        int count = 0;
+        for (int p : primes) {
+            long pe = 1;
+            // every carry when adding k and n-k in base p adds one p (Kummer)
+            for (long pi = p; pi <= n; pi *= p) {
+                if (n / pi - k / pi - (n - k) / pi > 0)
+                    pe *= p;
+            }
+            if (pe > 1)
+                factors[count++] = pe;
+        }
+        return fromLimbs(NumKernels.productOf(factors, count), false);
+    }
+
+    /**
+     * Product of all the primes less than or equal to n
+     *
+     * @return {@code n#}
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num primorial(int n) {
+        if (n < 0)
+            throw new ArithmeticException("Primorial of a negative number");
+        int[] primes = NumKernels.primesUpTo(n);
+        long[] factors = new long[primes.length];
+        for (int i = 0; i < primes.length; i++)
+            factors[i] = primes[i];
+        return fromLimbs(NumKernels.productOf(factors, factors.length), false);
+    }
+
+    /**
+     * n-th Fibonacci number using fast doubling with two squares per bit of n:
+     * {@code F(2k-1) = F(k)^2 + F(k-1)^2},
+     * {@code F(2k+1) = 4F(k)^2 - F(k-1)^2 + 2(-1)^k} and
+     * {@code F(2k) = F(2k+1) - F(2k-1)}
+     *
+     * @param n non negative index
+     * @return {@code F(n)}
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num fibonacci(long n) {
+        if (n < 0)
+            throw new ArithmeticException("Fibonacci of a negative index");
+        if (n == 0)
+            return ZERO;
+        return fromLimbs(fibonacciPair(n)[0], false);
+    }
+
+    /**
+     * n-th Lucas number, {@code L(n) = F(n) + 2F(n-1)}
+     *
+     * @param n non negative index
+     * @return {@code L(n)}
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num lucas(long n) {
+        if (n < 0)
+            throw new ArithmeticException("Lucas of a negative index");
+        if (n == 0)
+            return new Num(2);
+        long[][] pair = fibonacciPair(n);
+        return fromLimbs(NumKernels.add(pair[0], NumKernels.multiplySmall(pair[1], 2)), false);
+    }
+
+    /**
+     * @param n positive index
+     * @return {F(n), F(n-1)} as limbs
+     */
+
+    private static long[][] fibonacciPair(long n) {
+        long[] fk = NumKernels.valueOf(1);
+        long[] fk1 = NumKernels.EMPTY;
+        long k = 1;
+        long[] two = NumKernels.valueOf(2);
+        for (int bit = 62 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            long[] sk = NumKernels.square(fk);
+            long[] sk1 = NumKernels.square(fk1);
+            long[] f2km1 = NumKernels.add(sk, sk1);
+            long[] f2kp1 = NumKernels.subtract(NumKernels.multiplySmall(sk, 4), sk1);
+            f2kp1 = (k & 1) == 0 ? NumKernels.add(f2kp1, two) : NumKernels.subtract(f2kp1, two);
+            long[] f2k = NumKernels.subtract(f2kp1, f2km1);
+            if (((n >>> bit) & 1) == 0) {
+                fk = f2k;
+                fk1 = f2km1;
+                k = 2 * k;
+            } else {
+                fk = f2kp1;
+                fk1 = f2k;
+                k = 2 * k + 1;
+            }
+        }
+        return new long[][]{fk, fk1};
+    }
+
+    /**
+     * n-th Fibonacci number reduced modulo m, every step of the fast doubling is
+     * reduced so the operands never exceed m
+     *
+     * @param n non negative index
+     * @param m modulus
+     * @return {@code F(n) mod m}, null if m is not positive
+     * @throws ArithmeticException if n is negative
+     */
+
+    public static Num fibonacciMod(long n, Num m) {
+        if (n < 0)
+            throw new ArithmeticException("Fibonacci of a negative index");
+        if (m.isNegative || m.isZero())
+            return null;
+        long[] mod = m.toLimbs();
+        long[] a = NumKernels.EMPTY; // F(k)
+        long[] b = NumKernels.divideAndRemainder(NumKernels.valueOf(1), mod)[1]; // F(k+1)
+        for (int bit = 63 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            // F(2k) = F(k) * (2F(k+1) - F(k)), F(2k+1) = F(k)^2 + F(k+1)^2
+            long[] twoB = NumKernels.multiplySmall(b, 2);
+            long[] t = NumKernels.compare(twoB, a) >= 0 ? NumKernels.subtract(twoB, a)
+                    : NumKernels.subtract(NumKernels.add(twoB, mod), a);
+            long[] c = NumKernels.divideAndRemainder(NumKernels.multiply(a, t), mod)[1];
+            long[] d = NumKernels.divideAndRemainder(NumKernels.add(NumKernels.square(a), NumKernels.square(b)), mod)[1];
+            if (((n >>> bit) & 1) == 0) {
+                a = c;
+                b = d;
+            } else {
+                a = d;
+                b = NumKernels.divideAndRemainder(NumKernels.add(c, d), mod)[1];
+            }
+        }
+        return fromLimbs(a, false);
+    }
+
+    /**
+     * Divide the given two numbers a and b using Binary Search, or the long division of
+     * the limbs for a dividend of at least {@link #divideThreshold} digits
      *
      * @return {@code a/b}
      * @throws IllegalArgumentException if b is given as Zero
      */
 
     public static Num divide(Num a, Num b) {
+        if (a.compact && b.compact && b.smallMagnitude != 0)
+            return valueOf(a.small() / b.small());
+        if (b.compact && b.smallMagnitude != 0 && a.base == 10)
+            return divide(a, b.small());
+        if (a.len + 1 >= divideThreshold && a.base == 10 && b.base == 10 && !b.isZero()) {
+            long[] quotient = NumKernels.divideAndRemainder(a.toLimbs(), b.toLimbs())[0];
+            return fromLimbs(quotient, a.isNegative != b.isNegative);
+        }
         return calcDivide(a, b).convertBase10();
     }
 
@@ -342,6 +983,7 @@ public class Num implements Comparable<Num> {
      */
 
     private static Num[] quotientAndReminder(Num a, Num b) {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
         Num[] nums = new Num[2];
 
         //base case
@@ -350,28 +992,28 @@ public class Num implements Comparable<Num> {
             nums[1] = ZERO;
         } else if (b.isZero()) {
             nums[0] = null;
-            return nums;
-        } else if (a.compareTo(b) < 0 && !a.isNegative) {
+        } else if (a.checkNumbers(b) < 0) {
             nums[0] = ZERO;
             nums[1] = a;
-        } else if (a.compareTo(b) == 0) {
-            nums[0] = ONE;
+        } else if (a.checkNumbers(b) == 0) {
+            nums[0] = a.isNegative == b.isNegative ? ONE : valueOf(-1);
             nums[1] = ZERO;
         } else {
-            boolean bNegative = b.isNegative;
-            b.isNegative = false;
-            Num finalB = b;
-            Function<Num, Num> multiply_b_times = num1 -> multiply.apply(num1, identity.apply(finalB));
+            // the operands may be shared, the search runs on a positive copy of b
+            Num divisor = abs(b);
+            Function<Num, Num> multiply_b_times = num1 -> multiply.apply(num1, identity.apply(divisor));
             Num quotient = binarySearch(a, multiply_b_times);
-            if (a.isNegative != bNegative && !quotient.isZero())
-                quotient.isNegative = true;
+            if (a.isNegative != b.isNegative && !quotient.isZero())
+                quotient = negate(quotient);
             nums[0] = quotient;
-            if (!bNegative)
+            if (!b.isNegative)
                 nums[1] = subtract.apply(a, multiply.apply(b, quotient));
             else
                 nums[1] = ZERO;
-            b.isNegative = bNegative;
         }
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.DIVISION, start, Math.max(a.len, b.len) + 1,
+                    limbBytes(nums[0]) + limbBytes(nums[1]));
         return nums;
     }
 
@@ -384,15 +1026,18 @@ public class Num implements Comparable<Num> {
     public static Num mod(Num a, Num b) {
         if (b.isNegative || b.isZero())
             return null;
+        if (a.compact && b.compact)
+            return valueOf(a.small() % b.small());
+        if (b.compact && b.smallMagnitude <= SINGLE_PASS_LIMIT && a.base == 10)
+            return mod(a, b.small());
         Num quotient = calcDivide(a, b);
         return subtract.apply(a, multiply.apply(b, quotient));
     }
 
     /**
-     * Find the square root using Binary search algorithm
+     * Find the square root using Newton's iteration (see {@link #root(Num, int)})
      *
      * @return square root a, null if a is negative
-     * Time Complexity : O(log(length of digit))
      */
 
     public static Num squareRoot(Num a) {
@@ -400,7 +1045,49 @@ public class Num implements Comparable<Num> {
             return null;
         if (a.compareTo(ZERO) == 0 || a.compareTo(ONE) == 0)
             return a;
-        return binarySearch(a, square);
+        return fromLimbs(NumKernels.sqrt(a.toLimbs()), false);
+    }
+
+    /**
+     * k-th root by Newton's iteration seeded with a floating point estimate from the
+     * leading limbs, so only a few full precision steps are needed
+     *
+     * @param k root index, k >= 1
+     * @return k-th root of a truncated towards zero, null if a is negative and k is even
+     * @throws ArithmeticException if k is not positive
+     */
+
+    public static Num root(Num a, int k) {
+        if (k <= 0)
+            throw new ArithmeticException("Root of a non positive index");
+        if (a.isNegative && k % 2 == 0)
+            return null;
+        return fromLimbs(NumKernels.root(a.toLimbs(), k), a.isNegative);
+    }
+
+    /**
+     * Residues modulo 512 and 45045 reject most non squares before any multiplication
+     *
+     * @return true if this Num is the square of an integer
+     */
+
+    public boolean isPerfectSquare() {
+        return !this.isNegative && NumKernels.isSquare(this.toLimbs());
+    }
+
+    /**
+     * Only the prime exponents p dividing the multiplicities of 2 and 5, read from the
+     * lowest limbs, are tried. A root below 2^32, or below 2^62 for an odd Num, has a
+     * single candidate checked against the low limbs; for larger roots power residues
+     * modulo three primes {@code q = 1 mod p} reject most candidates before the p-th
+     * root is computed
+     *
+     * @return true if this Num is {@code m^e} for integers m and e >= 2, a negative Num
+     * needs an odd e
+     */
+
+    public boolean isPerfectPower() {
+        return NumKernels.isPerfectPower(this.toLimbs(), this.isNegative);
     }
 
     /**
@@ -411,13 +1098,12 @@ public class Num implements Comparable<Num> {
      */
 
     private static Num binarySearch(Num target, Function<Num, Num> targetFunction) {
-        return binarySearch(ONE, target, target, targetFunction);
+        // search for the magnitude, without changing the sign of the target
+        Num magnitude = abs(target);
+        return binarySearch(ONE, magnitude, magnitude, targetFunction);
     }
 
     private static Num binarySearch(Num start, Num end, Num target, Function<Num, Num> targetFunction) {
-        boolean sign = target.isNegative;
-        // set to positive always
-        target.isNegative = false;
         Num ans = ZERO;
         Num left = start;
         Num right = end;
@@ -427,6 +1113,7 @@ public class Num implements Comparable<Num> {
             return ans;
 
         while (left.checkNumbers(right) <= 0) {
+            NumDeadline.checkpoint();
             Num range = add.apply(right, left);
             Num mid = range.by2();
             Num targetMid = targetFunction.apply(mid);
@@ -435,16 +1122,15 @@ public class Num implements Comparable<Num> {
                 break;
             } else if (targetMid.checkNumbers(target) < 0) {
                 ans = mid;
-                left = add.apply(mid, ONE);
+                left = add(mid, 1);
             } else {
 //                ans = left;
                 if (ans.checkNumbers(ZERO) == 0)
                     ans = right;
-                right = subtract.apply(mid, ONE);
+                right = subtract(mid, 1);
             }
         }
 
-        target.isNegative = sign;
         return ans;
     }
 
@@ -457,6 +1143,8 @@ public class Num implements Comparable<Num> {
      */
 
     public int compareTo(Num other) {
+        if (this.compact && other.compact)
+            return Long.compare(this.small(), other.small());
         Num thisNumber = this; // TODO Implement clone operation
         // check for the sign then check magnitude
         if (thisNumber.isNegative == other.isNegative) {
@@ -480,12 +1168,17 @@ public class Num implements Comparable<Num> {
      */
 
     public int checkNumbers(Num other) {
+        if (this.compact && other.compact)
+            return Long.compare(this.smallMagnitude, other.smallMagnitude);
+        if (this.packed != null || other.packed != null)
+            return NumKernels.compare(this.limbBuffer(), other.limbBuffer());
         int lenCompare = Integer.compare(this.len, other.len);
         if (lenCompare != 0)
             return lenCompare;
 
+        long[] x = this.unpacked().arr, y = other.unpacked().arr;
         for (int i = this.len; i >= 0; i--) {
-            int compare = Long.compare(this.arr[i], other.arr[i]);
+            int compare = Long.compare(x[i], y[i]);
             if (compare != 0)
                 return compare;
         }
@@ -515,38 +1208,191 @@ public class Num implements Comparable<Num> {
      * then the output is "100: 65 9 1"
      */
     public void printList() {
-        StringBuilder sb = new StringBuilder();
-        sb.append(this.base() + ": ");
-        int digit = String.valueOf(this.base()).length();
-        StringBuilder builder = new StringBuilder(this.toString());
-        String reversed = builder.reverse().toString();
-        int i;
-        builder.setLength(0);
-        for (i = len; i >= 0; i--) {
-            sb.append(this.arr[i]);
-            sb.append(" ");
+        try {
+            Writer out = new OutputStreamWriter(System.out);
+            printList(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        if (this.isNegative)
-            sb.append("-");
-        System.out.println(sb.toString());
     }
 
-
     /**
-     * Return the string representation of the number from MSB to LSB
-     * For example the number is 31410, it will the Num as "31410" in string form
+     * Streaming form of {@link #printList()}: write the base and the digits of the Num
+     * followed by a line separator, in chunks of at most {@link #WRITE_CHUNK} chars
      *
-     * @throws NullPointerException if this object is null
+     * @param out writer of the list, it is not flushed
+     * @throws IOException if the writer fails
      */
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
 
+    public void printList(Writer out) throws IOException {
+        ChunkWriter chunks = new ChunkWriter(out);
+        chunks.put(this.base(), 0, false);
+        chunks.put(':');
+        chunks.put(' ');
+        if (this.packed != null) {
+            this.writeLimbs(chunks, true);
+        } else if (this.arr == null) {
+            chunks.put(this.smallMagnitude, 0, true);
+        } else {
+            for (int i = len; i >= 0; i--) {
+                chunks.put(this.arr[i], 0, false);
+                chunks.put(' ');
+            }
+        }
         if (this.isNegative)
-            sb.append("-");
+            chunks.put('-');
+        chunks.put(System.lineSeparator());
+        chunks.flush();
+    }
 
-        for (int i = this.len; i >= 0; i--) {
-            sb.append(this.arr[i]);
+    /**
+     * Write the same chars as {@link #toString()} in chunks of at most
+     * {@link #WRITE_CHUNK} chars, so the memory used does not grow with the Num. A Num
+     * backed by limbs is written straight from them.
+     *
+     * @param out writer of the digits, it is not flushed
+     * @throws IOException if the writer fails
+     */
+
+    public void writeTo(Writer out) throws IOException {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        ChunkWriter chunks = new ChunkWriter(out);
+        if (this.isNegative)
+            chunks.put('-');
+        if (this.packed != null || this.base != 10) {
+            this.writeLimbs(chunks, false);
+        } else if (this.arr == null) {
+            chunks.put(this.smallMagnitude, 0, false);
+        } else {
+            for (int i = this.len; i >= 0; i--)
+                chunks.put(this.arr[i], 0, false);
+        }
+        chunks.flush();
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.TO_STRING, start, this.digitCount(),
+                    (long) WRITE_CHUNK * Character.BYTES);
+    }
+
+    /**
+     * Write the digits of the Num to a byte stream, see {@link #writeTo(Writer)}
+     *
+     * @param out     stream of the digits, it is flushed but not closed
+     * @param charset encoding of the digits
+     * @throws IOException if the stream fails
+     */
+
+    public void writeTo(OutputStream out, Charset charset) throws IOException {
+        Writer writer = new OutputStreamWriter(out, charset);
+        this.writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * Write the decimal digits of the limbs from the most significant one, the limbs
+     * of a Num in another base than 10 are computed first
+     *
+     * @param spaced whether every digit is followed by a space
+     */
+
+    private void writeLimbs(ChunkWriter chunks, boolean spaced) throws IOException {
+        LongBuffer limbs = this.limbBuffer();
+        int top = limbs.limit() - 1;
+        if (top < 0) {
+            chunks.put(0, 0, spaced);
+            return;
         }
+        chunks.put(limbs.get(top), 0, spaced);
+        for (int i = top - 1; i >= 0; i--)
+            chunks.put(limbs.get(i), NumKernels.BASE_DIGITS, spaced);
+    }
+
+    /**
+     * Number of chars buffered by {@link #writeTo(Writer)} and {@link #printList(Writer)}
+     * between two writes
+     */
+    static final int WRITE_CHUNK = 8192;
+
+    /**
+     * Char buffer in front of a Writer, a digit never costs a call of the Writer
+     */
+    private static final class ChunkWriter {
+        private final Writer out;
+        private final char[] chunk = new char[WRITE_CHUNK];
+        private int size;
+
+        ChunkWriter(Writer out) {
+            this.out = out;
+        }
+
+        void put(char c) throws IOException {
+            if (size == chunk.length)
+                flush();
+            chunk[size++] = c;
+        }
+
+        void put(String s) throws IOException {
+            for (int i = 0; i < s.length(); i++)
+                put(s.charAt(i));
+        }
+
+        /**
+         * Append a non negative value in decimal
+         *
+         * @param width  least number of digits, the value is padded with zeros
+         * @param spaced whether every digit is followed by a space
+         */
+
+        void put(long value, int width, boolean spaced) throws IOException {
+            if (size > chunk.length - 40)
+                flush();
+            int digits = 1;
+            for (long v = value / 10; v != 0; v /= 10)
+                digits++;
+            digits = Math.max(digits, width);
+            int step = spaced ? 2 : 1;
+            int end = size + digits * step;
+            for (int i = end - step; i >= size; i -= step) {
+                chunk[i] = (char) ('0' + value % 10);
+                if (spaced)
+                    chunk[i + 1] = ' ';
+                value /= 10;
+            }
+            size = end;
+        }
+
+        void flush() throws IOException {
+            out.write(chunk, 0, size);
+            size = 0;
+        }
+    }
+
+    /**
+     * Return the string representation of the number from MSB to LSB
+     * For example the number is 31410, it will the Num as "31410" in string form.
+     * A Num in another base than 10 is written in decimal as well.
+     *
+     * @throws NullPointerException if this object is null
+     */
+    public String toString() {
+        if (this.packed != null || this.base != 10)
+            return fromLimbs(this.toLimbs(), this.isNegative).toString();
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        StringBuilder sb = new StringBuilder();
+
+        if (this.isNegative)
+            sb.append("-");
+
+        if (this.arr == null) {
+            sb.append(this.smallMagnitude);
+        } else {
+            for (int i = this.len; i >= 0; i--) {
+                sb.append(this.arr[i]);
+            }
+        }
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.TO_STRING, start, this.len + 1,
+                    (long) sb.length() * Character.BYTES);
         return sb.toString();
     }
 
@@ -568,6 +1414,8 @@ public class Num implements Comparable<Num> {
      */
 
     public Num convertBase(int newBase) {
+        if (this.shared)
+            return new Num(this.small()).convertBase(newBase);
         if (isNegative)
             return ZERO;
 
@@ -583,29 +1431,720 @@ public class Num implements Comparable<Num> {
 
 
     private Num convertBase(Num base) {
+        long start = NumMetrics.ENABLED ? System.nanoTime() : 0;
+        base = base.unpacked();
         base.convertBase10();
         Num copy = this.convertBase10();
-        long[] arr = new long[copy.len * 2 + 1];
+        int digits = copy.len + 1;
+        long[] arr = new long[(int) (digits / Math.log10(base.intValue())) + 2];
         int j = 0;
-        while (copy.compareTo(ZERO) > 0) {
-            Num[] qAndR = Num.quotientAndReminder(copy, base);
-            if (qAndR[0] != null) {
-                copy = qAndR[0];
-                arr[j++] = Long.parseLong(qAndR[1].toString());
+        long radix = base.intValue();
+        if (copy.compareTo(ZERO) > 0) {
+            // an int radix is below SINGLE_PASS_LIMIT, divide the digits in place, one
+            // pass per output digit
+            copy = copy.unpacked();
+            long[] rest = Arrays.copyOf(copy.arr, copy.len + 1);
+            int top = copy.len;
+            while (top > 0 || rest[0] != 0) {
+                NumDeadline.checkpoint();
+                arr[j++] = divideDigits(rest, top, radix, rest);
+                while (top > 0 && rest[top] == 0)
+                    top--;
             }
         }
         Num ans = new Num(arr, base.intValue(), false);
+        this.packed = null;
+        this.arena = null;
+        this.compact = false;
         this.arr = ans.arr;
         this.len = this.removeTrailingZeros(this.arr);
         this.base = Long.parseLong(base.toString());
+        if (NumMetrics.ENABLED)
+            NumMetrics.record(NumMetrics.Operation.CONVERT_BASE, start, digits, (long) arr.length * Long.BYTES);
         return this;
     }
 
+    /**
+     * @return bytes of the limb array of num, 0 if num is null
+     */
+
+    private static long limbBytes(Num num) {
+        return num == null || num.arr == null ? 0 : (long) num.arr.length * Long.BYTES;
+    }
+
     private Num convertBase10() {
         StringBuilder number = new StringBuilder(this.toString());
         return copyStringToNumInReverse(number.toString());
     }
 
+    /**
+     * Pack the magnitude of this Num in limbs of {@link NumKernels#BASE}
+     *
+     * @return trimmed limbs in the little endian order
+     */
+
+    long[] toLimbs() {
+        if (this.packed != null)
+            return NumKernels.toArray(this.limbBuffer());
+        if (this.arr == null)
+            return NumKernels.valueOf(this.smallMagnitude);
+        if (this.base == NumKernels.BASE)
+            return NumKernels.trim(Arrays.copyOf(this.arr, this.len + 1));
+        if (this.base != 10) {
+            long[] limbs = NumKernels.EMPTY;
+            for (int i = this.len; i >= 0; i--)
+                limbs = NumKernels.add(NumKernels.multiplySmall(limbs, this.base), NumKernels.valueOf(this.arr[i]));
+            return limbs;
+        }
+        int digits = this.len + 1;
+        long[] limbs = new long[(digits + NumKernels.BASE_DIGITS - 1) / NumKernels.BASE_DIGITS];
+        for (int k = 0; k < limbs.length; k++) {
+            int from = k * NumKernels.BASE_DIGITS;
+            long limb = 0;
+            for (int i = Math.min(digits, from + NumKernels.BASE_DIGITS) - 1; i >= from; i--)
+                limb = limb * 10 + this.arr[i];
+            limbs[k] = limb;
+        }
+        return NumKernels.trim(limbs);
+    }
+
+    /**
+     * Unpack the limbs produced by {@link NumKernels} into a base 10 Num
+     *
+     * @param limbs    trimmed limbs in the little endian order
+     * @param negative sign of the result
+     * @return Num in base 10
+     */
+
+    static Num fromLimbs(long[] limbs, boolean negative) {
+        if (limbs.length == 0)
+            return ZERO;
+        long[] arr = new long[limbs.length * NumKernels.BASE_DIGITS + 1];
+        int j = 0;
+        for (long limb : limbs) {
+            for (int d = 0; d < NumKernels.BASE_DIGITS; d++) {
+                arr[j++] = limb % 10;
+                limb /= 10;
+            }
+        }
+        return new Num(arr, 10, negative);
+    }
+
+    /**
+     * Wrap the limbs produced by {@link NumKernels} without unpacking them, the digits
+     * are produced only when a digit level operation needs them
+     *
+     * @param limbs    trimmed limbs in the little endian order, owned by the result
+     * @param negative sign of the result
+     * @return Num backed by the limbs, a compact Num when they hold less than 10^18
+     */
+
+    static Num wrapLimbs(long[] limbs, boolean negative) {
+        if (limbs.length <= 2) {
+            long magnitude = 0;
+            for (int i = limbs.length - 1; i >= 0; i--)
+                magnitude = magnitude * NumKernels.BASE + limbs[i];
+            return valueOf(negative ? -magnitude : magnitude);
+        }
+        return packed(LongBuffer.wrap(limbs), negative, null);
+    }
+
+    /**
+     * @param limbs trimmed limbs, at least one
+     * @param arena owner of the limbs when they are off-heap, else null
+     */
+
+    private static Num packed(LongBuffer limbs, boolean negative, NumArena arena) {
+        Num num = new Num();
+        num.packed = limbs;
+        num.arena = arena;
+        num.isNegative = negative;
+        // len is the index of the most significant decimal digit
+        num.len = (limbs.limit() - 1) * NumKernels.BASE_DIGITS + Long.toString(limbs.get(limbs.limit() - 1)).length() - 1;
+        return num;
+    }
+
+    /**
+     * Write this Num in the binary format of {@link NumCodec} at the position of the buffer
+     *
+     * @param buffer buffer with at least {@link NumCodec#serializedSize(Num)} bytes remaining
+     */
+
+    public void writeTo(ByteBuffer buffer) {
+        NumCodec.write(this, buffer);
+    }
+
+    /**
+     * Read a Num written by {@link #writeTo(ByteBuffer)} and advance the buffer past it
+     *
+     * @throws IllegalArgumentException if the record is not in a supported format
+     */
+
+    public static Num readFrom(ByteBuffer buffer) {
+        return NumCodec.read(buffer);
+    }
+
+    /**
+     * Shift a left by n bits
+     *
+     * @param n number of bits, a negative n shifts right
+     * @return {@code a * 2^n}
+     */
+
+    public static Num shiftLeft(Num a, int n) {
+        if (n < 0)
+            return shiftRight(a, -n);
+        if (a.compact && n < 63) {
+            try {
+                return valueOf(Math.multiplyExact(a.small(), 1L << n));
+            } catch (ArithmeticException overflow) {
+                // continue with the limbs
+            }
+        }
+        long[] limbs = a.toLimbs();
+        long[] shifted = n < 31 ? NumKernels.multiplySmall(limbs, 1L << n)
+                : NumKernels.multiply(limbs, NumKernels.powerOfTwo(n));
+        return fromLimbs(shifted, a.isNegative);
+    }
+
+    /**
+     * Shift a right by n bits with sign extension, like {@code >>} on a long
+     *
+     * @param n number of bits, a negative n shifts left
+     * @return {@code floor(a / 2^n)}
+     */
+
+    public static Num shiftRight(Num a, int n) {
+        if (n < 0)
+            return shiftLeft(a, -n);
+        if (a.compact)
+            return valueOf(a.small() >> Math.min(n, 63));
+        long[] limbs = a.toLimbs();
+        long[][] qAndR = n < 31 ? NumKernels.divideSmall(limbs, 1L << n)
+                : NumKernels.divideAndRemainder(limbs, NumKernels.powerOfTwo(n));
+        long[] quotient = qAndR[0];
+        // the quotient of the magnitude truncates, a negative a rounds towards -infinity
+        if (a.isNegative && qAndR[1].length != 0)
+            quotient = NumKernels.add(quotient, NumKernels.valueOf(1));
+        return fromLimbs(quotient, a.isNegative);
+    }
+
+    /**
+     * @param n index of the bit, 0 is the least significant
+     * @return true if bit n of the two's complement representation is set
+     * @throws ArithmeticException if n is negative
+     */
+
+    public boolean testBit(int n) {
+        if (n < 0)
+            throw new ArithmeticException("Negative bit address");
+        Num shifted = shiftRight(this, n);
+        return shifted.compact ? (shifted.small() & 1) == 1 : (shifted.toLimbs()[0] & 1) == 1;
+    }
+
+    /**
+     * When one operand fits in a long this is one pass over the digits of the other,
+     * otherwise both are converted to binary words, which is quadratic in the number of
+     * digits since Num stores them in decimal
+     *
+     * @return {@code a & b} in two's complement
+     */
+
+    public static Num and(Num a, Num b) {
+        if (a.compact && b.compact)
+            return valueOf(a.small() & b.small());
+        if (b.compact && a.base == 10)
+            return and(a, b.small());
+        if (a.compact && b.base == 10)
+            return and(b, a.small());
+        int words = commonWords(a, b);
+        int[] x = a.twosComplement(words);
+        int[] y = b.twosComplement(words);
+        for (int i = 0; i < words; i++)
+            x[i] &= y[i];
+        return fromTwosComplement(x);
+    }
+
+    /**
+     * @return {@code a | b} in two's complement, see {@link #and(Num, Num)}
+     */
+
+    public static Num or(Num a, Num b) {
+        if (a.compact && b.compact)
+            return valueOf(a.small() | b.small());
+        if (b.compact && a.base == 10)
+            return or(a, b.small());
+        if (a.compact && b.base == 10)
+            return or(b, a.small());
+        int words = commonWords(a, b);
+        int[] x = a.twosComplement(words);
+        int[] y = b.twosComplement(words);
+        for (int i = 0; i < words; i++)
+            x[i] |= y[i];
+        return fromTwosComplement(x);
+    }
+
+    /**
+     * @return {@code a ^ b} in two's complement, see {@link #and(Num, Num)}
+     */
+
+    public static Num xor(Num a, Num b) {
+        if (a.compact && b.compact)
+            return valueOf(a.small() ^ b.small());
+        if (b.compact && a.base == 10)
+            return xor(a, b.small());
+        if (a.compact && b.base == 10)
+            return xor(b, a.small());
+        int words = commonWords(a, b);
+        int[] x = a.twosComplement(words);
+        int[] y = b.twosComplement(words);
+        for (int i = 0; i < words; i++)
+            x[i] ^= y[i];
+        return fromTwosComplement(x);
+    }
+
+    /**
+     * Above its low 63 bits a long m is all zeros or all ones, so the high bits of
+     * {@code a & m}, {@code a | m} and {@code a ^ m} are those of a, their complement
+     * or the sign of m: the long operations below only read {@link #longValue()} and
+     * make one pass over the digits of a
+     *
+     * @return {@code a & m}
+     */
+
+    private static Num and(Num a, long m) {
+        long low = a.longValue();
+        // a & m = a - (a & ~m) for a negative m
+        return m >= 0 ? valueOf(low & m) : subtract(a, low & ~m);
+    }
+
+    /**
+     * @return {@code a | m}, see {@link #and(Num, long)}
+     */
+
+    private static Num or(Num a, long m) {
+        long low = a.longValue();
+        // a | m = a + (m & ~a) for a non negative m
+        return m >= 0 ? add(a, m & ~low) : valueOf(low | m);
+    }
+
+    /**
+     * @return {@code a ^ m}, see {@link #and(Num, long)}
+     */
+
+    private static Num xor(Num a, long m) {
+        if (m < 0)
+            return not(xor(a, ~m));
+        long low = a.longValue();
+        // a ^ m = a + (m & ~a) - (a & m), both terms are below 2^63
+        return add(a, (m & ~low) - (low & m));
+    }
+
+    /**
+     * @return {@code ~a}, which is {@code -a - 1}
+     */
+
+    public static Num not(Num a) {
+        if (a.compact)
+            return valueOf(~a.small());
+        return subtract(negate(a), ONE);
+    }
+
+    /**
+     * @return Num with the same magnitude and the opposite sign
+     */
+
+    private static Num negate(Num a) {
+        Num ans = fromLimbs(a.toLimbs(), !a.isNegative);
+        if (ans.isZero())
+            return ZERO;
+        return ans;
+    }
+
+    /**
+     * @return a if it is not negative, else a new Num with its magnitude in the same base
+     */
+
+    private static Num abs(Num a) {
+        if (!a.isNegative)
+            return a;
+        if (a.base == 10)
+            return negate(a);
+        return new Num(Arrays.copyOf(a.arr, a.len + 1), a.base, false);
+    }
+
+    /**
+     * @return words needed by the two's complement of a and b, including the sign bit
+     */
+
+    private static int commonWords(Num a, Num b) {
+        return (Math.max(a.bitLength(), b.bitLength()) >>> 5) + 1;
+    }
+
+    /**
+     * @param words number of words, large enough to hold the sign bit
+     * @return two's complement of this Num sign extended to the given words
+     */
+
+    private int[] twosComplement(int words) {
+        int[] x = Arrays.copyOf(NumKernels.toBinary(this.toLimbs()), words);
+        if (this.isNegative)
+            negateWords(x);
+        return x;
+    }
+
+    /**
+     * @param x two's complement words, the top bit of the last word is the sign
+     * @return Num of the words
+     */
+
+    private static Num fromTwosComplement(int[] x) {
+        boolean negative = x[x.length - 1] < 0;
+        if (negative)
+            negateWords(x);
+        int n = x.length;
+        while (n > 0 && x[n - 1] == 0)
+            n--;
+        return fromLimbs(NumKernels.fromBinary(Arrays.copyOf(x, n)), negative);
+    }
+
+    /**
+     * Replace the words by their two's complement negation, {@code ~x + 1}
+     */
+
+    private static void negateWords(int[] x) {
+        long carry = 1;
+        for (int i = 0; i < x.length; i++) {
+            long t = (~x[i] & 0xFFFFFFFFL) + carry;
+            x[i] = (int) t;
+            carry = t >>> 32;
+        }
+    }
+
+    /**
+     * Greatest common divisor using the binary GCD for values below 10^18, Lehmer's
+     * algorithm and the recursive half-GCD of {@link NumGcd} for larger ones
+     *
+     * @return non negative {@code gcd(a, b)}, Zero if both are Zero
+     */
+
+    public static Num gcd(Num a, Num b) {
+        if (a.compact && b.compact)
+            return valueOf(NumGcd.binaryGcd(a.smallMagnitude, b.smallMagnitude));
+        return fromLimbs(NumGcd.gcd(a.toLimbs(), b.toLimbs()), false);
+    }
+
+    /**
+     * Extended Euclid: Bezout cofactors of a and b
+     *
+     * @return {g, x, y} with {@code a * x + b * y = g = gcd(a, b)}
+     */
+
+    public static Num[] extendedGcd(Num a, Num b) {
+        long[] x = a.toLimbs();
+        long[] y = b.toLimbs();
+        boolean swap = NumKernels.compare(x, y) < 0;
+        long[][] r = swap ? new long[][]{y, x} : new long[][]{x, y};
+        // g = sign * (s0 * r[0] - t0 * r[1]) with sign = -1 when m.odd
+        NumGcd.Matrix m = NumGcd.extendedGcd(r);
+        Num u = fromLimbs(swap ? m.t0 : m.s0, (swap != m.odd) ^ a.isNegative);
+        Num v = fromLimbs(swap ? m.s0 : m.t0, (swap == m.odd) ^ b.isNegative);
+        return new Num[]{fromLimbs(r[0], false), u, v};
+    }
+
+    /**
+     * Modular inverse with the extended Euclid of {@link NumGcd}
+     *
+     * @param m positive modulus
+     * @return x in {@code [0, m)} with {@code a * x = 1 mod m}
+     * @throws ArithmeticException if m is not positive or a is not invertible modulo m
+     */
+
+    public static Num modInverse(Num a, Num m) {
+        if (m.isNegative || m.isZero())
+            throw new ArithmeticException("Modulus not positive");
+        long[] mod = m.toLimbs();
+        long[] residue = NumKernels.divideAndRemainder(a.toLimbs(), mod)[1];
+        if (a.isNegative && residue.length != 0)
+            residue = NumKernels.subtract(mod, residue);
+        long[][] r = {mod, residue};
+        NumGcd.Matrix matrix = NumGcd.extendedGcd(r);
+        if (NumKernels.compare(r[0], NumKernels.valueOf(1)) != 0)
+            throw new ArithmeticException("Num not invertible");
+        // 1 = sign * (s0 * m - t0 * residue), so the inverse is -sign * t0
+        long[] inverse = NumKernels.divideAndRemainder(matrix.t0, mod)[1];
+        if (!matrix.odd && inverse.length != 0)
+            inverse = NumKernels.subtract(mod, inverse);
+        return fromLimbs(inverse, false);
+    }
+
+    /**
+     * @return non negative least common multiple of a and b, Zero if either is Zero
+     */
+
+    public static Num lcm(Num a, Num b) {
+        if (a.isZero() || b.isZero())
+            return ZERO;
+        long[] x = a.toLimbs();
+        long[] y = b.toLimbs();
+        long[] g = NumGcd.gcd(x, y);
+        return fromLimbs(NumKernels.multiply(NumKernels.divideAndRemainder(x, g)[0], y), false);
+    }
+
+    /**
+     * Baillie-PSW probable prime test of the magnitude of this Num: trial division by
+     * the small primes, Miller-Rabin and the strong Lucas test (see {@link NumPrimes}).
+     * The answer is exact below 10^18. The sign is ignored as in
+     * {@link java.math.BigInteger#isProbablePrime(int)}, so -7 is a probable prime too.
+     *
+     * @param certainty a composite passes with probability at most {@code 2^-certainty}
+     * @return true if |this| is probably prime, always true if certainty is not positive
+     */
+
+    public boolean isProbablePrime(int certainty) {
+        return NumPrimes.isProbablePrime(this.toLimbs(), certainty);
+    }
+
+    /**
+     * Sieve odd candidates by the small primes and test the survivors with
+     * {@link #isProbablePrime(int)} at certainty 100
+     *
+     * @return the smallest probable prime greater than this Num
+     * @throws ArithmeticException if this Num is negative
+     */
+
+    public Num nextProbablePrime() {
+        if (this.isNegative)
+            throw new ArithmeticException("Prime search from a negative number");
+        return fromLimbs(NumPrimes.nextProbablePrime(this.toLimbs()), false);
+    }
+
+    /**
+     * Test the nums in parallel, one task per Num on the given executor
+     *
+     * @return {@code nums[i].isProbablePrime(certainty)} for every i
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+
+    public static boolean[] isProbablePrime(Num[] nums, int certainty, ExecutorService executor)
+            throws InterruptedException {
+        List<Callable<Boolean>> tasks = new ArrayList<>(nums.length);
+        for (Num num : nums)
+            tasks.add(() -> num.isProbablePrime(certainty));
+        List<Future<Boolean>> results = executor.invokeAll(tasks);
+        boolean[] primes = new boolean[nums.length];
+        for (int i = 0; i < primes.length; i++) {
+            try {
+                primes[i] = results.get(i).get();
+            } catch (ExecutionException failure) {
+                if (failure.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) failure.getCause();
+                throw new IllegalStateException(failure.getCause());
+            }
+        }
+        return primes;
+    }
+
+    /**
+     * Test the nums in parallel on the common fork join pool
+     *
+     * @return {@code nums[i].isProbablePrime(certainty)} for every i
+     */
+
+    public static boolean[] isProbablePrime(Num[] nums, int certainty) {
+        boolean[] primes = new boolean[nums.length];
+        IntStream.range(0, nums.length).parallel().forEach(i -> primes[i] = nums[i].isProbablePrime(certainty));
+        return primes;
+    }
+
+    /**
+     * Copy this Num to off-heap storage owned by the arena. Numbers smaller than
+     * {@code -Dnum.offHeapThreshold} limbs (default 2^17, about 1.2 million digits)
+     * stay on the heap.
+     *
+     * @param arena arena owning the storage, the result must not be used after it is closed
+     * @return Num with the same value
+     */
+
+    public Num offHeap(NumArena arena) {
+        if (this.packed != null && this.arena == arena)
+            return this;
+        LongBuffer limbs = this.limbBuffer();
+        LongBuffer copy = NumKernels.allocate(limbs.limit(), arena);
+        copy.put(0, limbs, 0, limbs.limit());
+        return fromLimbs(copy, this.isNegative, arena);
+    }
+
+    /**
+     * @return true if the limbs of this Num are stored off-heap
+     */
+
+    public boolean isOffHeap() {
+        return this.arena != null;
+    }
+
+    /**
+     * Product of a and b, the operands may be stored on or off the heap. A result of at
+     * least {@code -Dnum.offHeapThreshold} limbs is stored off-heap in the arena.
+     *
+     * @return {@code a * b}
+     */
+
+    public static Num product(Num a, Num b, NumArena arena) {
+        LongBuffer limbs = NumKernels.multiply(a.limbBuffer(), b.limbBuffer(), arena);
+        return fromLimbs(limbs, a.isNegative != b.isNegative, arena);
+    }
+
+    /**
+     * Sum of a and b, the operands may be stored on or off the heap. A result of at
+     * least {@code -Dnum.offHeapThreshold} limbs is stored off-heap in the arena.
+     *
+     * @return {@code a + b}
+     */
+
+    public static Num add(Num a, Num b, NumArena arena) {
+        return addSigned(a, b, b.isNegative, arena);
+    }
+
+    /**
+     * Difference of a and b, the operands may be stored on or off the heap. A result of
+     * at least {@code -Dnum.offHeapThreshold} limbs is stored off-heap in the arena.
+     *
+     * @return {@code a - b}
+     */
+
+    public static Num subtract(Num a, Num b, NumArena arena) {
+        return addSigned(a, b, !b.isNegative, arena);
+    }
+
+    private static Num addSigned(Num a, Num b, boolean bNegative, NumArena arena) {
+        LongBuffer x = a.limbBuffer();
+        LongBuffer y = b.limbBuffer();
+        if (a.isNegative == bNegative)
+            return fromLimbs(NumKernels.add(x, y, arena), a.isNegative, arena);
+        if (NumKernels.compare(x, y) >= 0)
+            return fromLimbs(NumKernels.subtract(x, y, arena), a.isNegative, arena);
+        return fromLimbs(NumKernels.subtract(y, x, arena), bNegative, arena);
+    }
+
+    /**
+     * @return limbs of the magnitude, the packed limbs themselves when there are some
+     * @throws IllegalStateException if the arena of this Num is closed
+     */
+
+    private LongBuffer limbBuffer() {
+        if (this.packed == null)
+            return LongBuffer.wrap(this.toLimbs());
+        if (this.arena != null)
+            this.arena.checkAlive();
+        return this.packed;
+    }
+
+    /**
+     * @return this Num when it is stored in digits, otherwise a copy of it in base 10 digits
+     */
+
+    private Num unpacked() {
+        if (this.arr != null)
+            return this;
+        if (this.packed == null)
+            return new Num(digitsOf(this.smallMagnitude), 10, this.isNegative);
+        return fromLimbs(NumKernels.toArray(this.limbBuffer()), this.isNegative);
+    }
+
+    /**
+     * Wrap limbs produced by the buffer kernels, direct buffers of the arena become the
+     * packed limbs of an off-heap result, heap buffers are unpacked into base 10 digits
+     */
+
+    private static Num fromLimbs(LongBuffer limbs, boolean negative, NumArena arena) {
+        if (limbs.limit() == 0)
+            return ZERO;
+        if (!limbs.isDirect())
+            return fromLimbs(NumKernels.toArray(limbs), negative);
+        return packed(limbs, negative, arena);
+    }
+
+    /**
+     * {@link #power(Num, long)} bounded by the deadline
+     *
+     * @throws java.util.concurrent.CancellationException if the estimated time exceeds
+     *                                                    the deadline, or the deadline
+     *                                                    expires or is cancelled meanwhile
+     */
+
+    public static Num power(Num a, long n, NumDeadline deadline) {
+        deadline.admit(NumDeadline.powerNanos(a, n));
+        return deadline.call(() -> power(a, n));
+    }
+
+    /**
+     * {@link #product(Num, Num)} bounded by the deadline
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #power(Num, long, NumDeadline)}
+     */
+
+    public static Num product(Num a, Num b, NumDeadline deadline) {
+        deadline.admit(NumDeadline.productNanos(a, b));
+        return deadline.call(() -> product(a, b));
+    }
+
+    /**
+     * {@link #divide(Num, Num)} bounded by the deadline
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #power(Num, long, NumDeadline)}
+     */
+
+    public static Num divide(Num a, Num b, NumDeadline deadline) {
+        deadline.admit(NumDeadline.divideNanos(a, b));
+        return deadline.call(() -> divide(a, b));
+    }
+
+    /**
+     * {@link #squareRoot(Num)} bounded by the deadline
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #power(Num, long, NumDeadline)}
+     */
+
+    public static Num squareRoot(Num a, NumDeadline deadline) {
+        deadline.admit(NumDeadline.squareRootNanos(a));
+        return deadline.call(() -> squareRoot(a));
+    }
+
+    /**
+     * {@link #convertBase(int)} bounded by the deadline, this Num is left unchanged when
+     * the conversion is stopped
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #power(Num, long, NumDeadline)}
+     */
+
+    public Num convertBase(int newBase, NumDeadline deadline) {
+        deadline.admit(NumDeadline.convertBaseNanos(this, newBase));
+        return deadline.call(() -> this.convertBase(newBase));
+    }
+
+    /**
+     * {@link #evaluatePostfix(String[])} bounded by the deadline, the estimate follows
+     * the sizes of the literals through the expression
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #power(Num, long, NumDeadline)}
+     */
+
+    public static Num evaluatePostfix(String[] expr, NumDeadline deadline) {
+        deadline.admit(NumDeadline.postfixNanos(expr));
+        return deadline.call(() -> evaluatePostfix(expr));
+    }
+
+    /**
+     * {@link #evaluateInfix(String[])} bounded by the deadline
+     *
+     * @throws java.util.concurrent.CancellationException see {@link #evaluatePostfix(String[], NumDeadline)}
+     */
+
+    public static Num evaluateInfix(String[] expr, NumDeadline deadline) {
+        return evaluatePostfix(applyShuntingYard.apply(expr), deadline);
+    }
+
     /**
      * Divide the given Num by 2
      *
@@ -613,6 +2152,8 @@ public class Num implements Comparable<Num> {
      */
 
     public Num by2() {
+        if (this.arr == null)
+            return this.unpacked().by2();
 
         if (this.checkNumbers(ONE) == 0)
             return ZERO;
@@ -636,10 +2177,11 @@ public class Num implements Comparable<Num> {
         Num ans;
         ans = new Num(arr, this.base, this.isNegative);
         if (carry != 0)
-            ans = add(ans, ONE);
+            ans = add(ans, 1);
 
-        if (this.isNegative)
-            ans.isNegative = true;
+        // the sum may be a cached value, which is never changed in place
+        if (this.isNegative && !ans.isNegative && !ans.isZero())
+            ans = negate(ans);
         return ans;
     }
 
@@ -655,18 +2197,202 @@ public class Num implements Comparable<Num> {
 
     /**
      * @return the integer value of the given Num
-     * @throws NullPointerException if this object is null
+     * @throws ArithmeticException if the value does not fit in a long
      */
 
     public long intValue() {
-        if (this.toString().length() > Integer.MAX_VALUE)
-            throw new ArithmeticException();
-        return Long.parseLong(this.toString());
+        return longValueExact();
+    }
+
+    /**
+     * Low 64 bits of the two's complement value, like {@code BigInteger.longValue()}.
+     * 10^i is a multiple of 2^64 for i >= 64, so only the lowest 64 digits are read.
+     *
+     * @return value of this Num modulo 2^64
+     */
+
+    public long longValue() {
+        if (this.compact)
+            return this.small();
+        long value = 0;
+        if (this.packed == null && this.base == 10) {
+            for (int i = Math.min(this.len, 63); i >= 0; i--)
+                value = value * 10 + this.arr[i];
+        } else {
+            LongBuffer limbs = this.limbBuffer();
+            for (int i = Math.min(limbs.limit(), 8) - 1; i >= 0; i--)
+                value = value * NumKernels.BASE + limbs.get(i);
+        }
+        return this.isNegative ? -value : value;
+    }
+
+    /**
+     * @return value of this Num
+     * @throws ArithmeticException if the value does not fit in a long
+     */
+
+    public long longValueExact() {
+        if (this.compact)
+            return this.small();
+        if (this.digitCount() > 19)
+            throw new ArithmeticException("Num out of long range");
+        long[] limbs = this.toLimbs();
+        try {
+            // accumulate negatively so that Long.MIN_VALUE is representable
+            long value = 0;
+            for (int i = limbs.length - 1; i >= 0; i--)
+                value = Math.subtractExact(Math.multiplyExact(value, NumKernels.BASE), limbs[i]);
+            return this.isNegative ? value : Math.negateExact(value);
+        } catch (ArithmeticException overflow) {
+            throw new ArithmeticException("Num out of long range");
+        }
+    }
+
+    /**
+     * Number of bits of the minimal two's complement representation excluding the sign
+     * bit, like {@code BigInteger.bitLength()}
+     *
+     * @return {@code ceil(log2(this < 0 ? -this : this + 1))}
+     */
+
+    public int bitLength() {
+        if (this.compact) {
+            long value = this.small();
+            return 64 - Long.numberOfLeadingZeros(value < 0 ? ~value : value);
+        }
+        long[] limbs = this.toLimbs();
+        if (this.isNegative)
+            limbs = NumKernels.subtract(limbs, NumKernels.valueOf(1));
+        return NumKernels.bitLength(limbs);
+    }
+
+    /**
+     * @return number of decimal digits of the magnitude, 1 for zero
+     */
+
+    public int digitCount() {
+        if (this.base == 10 || this.packed != null)
+            return this.len + 1;
+        long[] limbs = this.toLimbs();
+        if (limbs.length == 0)
+            return 1;
+        return (limbs.length - 1) * NumKernels.BASE_DIGITS + Long.toString(limbs[limbs.length - 1]).length();
+    }
+
+    /**
+     * @return {@code floor(log10(|this|))}, one less than the number of digits
+     * @throws ArithmeticException if this Num is zero
+     */
+
+    public int log10Floor() {
+        if (this.isZero())
+            throw new ArithmeticException("Logarithm of zero");
+        return this.digitCount() - 1;
+    }
+
+    /**
+     * Return the k most significant decimal digits of the magnitude, all of them when
+     * the Num has at most k digits. A base 10 Num is read from its top digits, a Num
+     * backed by limbs from its top limbs, so the cost only depends on k.
+     *
+     * @param k number of digits, positive
+     * @return the digits without sign
+     * @throws IllegalArgumentException if k is not positive
+     */
+
+    public String leadingDigits(int k) {
+        if (k <= 0)
+            throw new IllegalArgumentException("Number of digits not positive");
+        if (this.base == 10 && this.arr != null) {
+            int n = Math.min(k, this.len + 1);
+            char[] digits = new char[n];
+            for (int i = 0; i < n; i++)
+                digits[i] = (char) ('0' + this.arr[this.len - i]);
+            return new String(digits);
+        }
+        LongBuffer limbs = this.limbBuffer();
+        int top = limbs.limit() - 1;
+        if (top < 0)
+            return "0";
+        StringBuilder sb = new StringBuilder(k + NumKernels.BASE_DIGITS);
+        sb.append(limbs.get(top));
+        for (int i = top - 1; i >= 0 && sb.length() < k; i--)
+            appendLimb(sb, limbs.get(i));
+        sb.setLength(Math.min(sb.length(), k));
+        return sb.toString();
+    }
+
+    /**
+     * Return the k least significant decimal digits of the magnitude, {@code |this| mod 10^k}
+     * padded with zeros to k digits, or all the digits when the Num has at most k
+     * digits. A Num in another base than 10 is reduced mod 10^k digit by digit, without
+     * converting it.
+     *
+     * @param k number of digits, positive
+     * @return the digits without sign
+     * @throws IllegalArgumentException if k is not positive
+     */
+
+    public String trailingDigits(int k) {
+        if (k <= 0)
+            throw new IllegalArgumentException("Number of digits not positive");
+        if (this.base == 10 && this.arr != null) {
+            int n = Math.min(k, this.len + 1);
+            char[] digits = new char[n];
+            for (int i = 0; i < n; i++)
+                digits[i] = (char) ('0' + this.arr[n - 1 - i]);
+            return new String(digits);
+        }
+        int count = (k + NumKernels.BASE_DIGITS - 1) / NumKernels.BASE_DIGITS;
+        long[] low;
+        boolean truncated;
+        if (this.arr == null) {
+            LongBuffer limbs = this.limbBuffer();
+            truncated = limbs.limit() > count;
+            low = new long[Math.min(count, limbs.limit())];
+            limbs.get(0, low);
+        } else {
+            // Horner's rule mod 10^(9 * count) on the digits of the base
+            low = NumKernels.EMPTY;
+            truncated = false;
+            for (int i = this.len; i >= 0; i--) {
+                low = NumKernels.add(NumKernels.multiplySmall(low, this.base), NumKernels.valueOf(this.arr[i]));
+                if (low.length > count) {
+                    truncated = true;
+                    low = NumKernels.trim(Arrays.copyOf(low, count));
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(count * NumKernels.BASE_DIGITS);
+        for (int i = low.length - 1; i >= 0; i--) {
+            if (i == low.length - 1 && !truncated)
+                sb.append(low[i]);
+            else
+                appendLimb(sb, low[i]);
+        }
+        if (truncated) {
+            while (sb.length() < count * NumKernels.BASE_DIGITS)
+                sb.insert(0, '0');
+        } else if (sb.length() == 0) {
+            sb.append('0');
+        }
+        return sb.length() > k ? sb.substring(sb.length() - k) : sb.toString();
+    }
+
+    /**
+     * Append a limb of {@link NumKernels#BASE} padded with zeros to its nine digits
+     */
+
+    private static void appendLimb(StringBuilder sb, long limb) {
+        String digits = Long.toString(limb);
+        for (int i = digits.length(); i < NumKernels.BASE_DIGITS; i++)
+            sb.append('0');
+        sb.append(digits);
     }
 
     /**
      * Evaluate an expression in postfix and return resulting number
-     * Each string is one of: "*", "+", "-", "/", "%", "^", "0", or
+     * Each string is one of: "*", "+", "-", "/", "%", "^", "!", "#", "<<", ">>", "&", "|", "0", or
      * a number: [1-9][0-9]*.  There is no unary minus operator.
      *
      * @return result of the expression in Num
@@ -680,7 +2406,7 @@ public class Num implements Comparable<Num> {
 
     /**
      * Evaluate an expression in infix and return resulting number
-     * Each string is one of: "*", "+", "-", "/", "%", "^", "(", ")", "0", or
+     * Each string is one of: "*", "+", "-", "/", "%", "^", "!", "#", "<<", ">>", "&", "|", "(", ")", "0", or
      * a number: [1-9][0-9]*.  There is no unary minus operator.
      *
      * @return result of the expression in Num
@@ -708,8 +2434,11 @@ public class Num implements Comparable<Num> {
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(base, isNegative, len);
-        result = 31 * result + Arrays.hashCode(arr);
+        if (this.arr == null || this.base != 10)
+            return fromLimbs(this.toLimbs(), this.isNegative).hashCode();
+        int result = Objects.hash(isNegative && !isZero(), len);
+        for (int i = 0; i <= len; i++)
+            result = 31 * result + Long.hashCode(arr[i]);
         return result;
     }
 
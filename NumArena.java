@@ -0,0 +1,127 @@
+package sxv176330;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NumArena owns the off-heap limb storage of Nums. Limbs are allocated in direct
+ * buffers outside the Java heap, so gigantic numbers neither drive full GCs nor
+ * need humongous regions, and all of them are released together when the arena is
+ * closed instead of whenever the collector finds the buffers unreachable.
+ * <p>A Num backed by an arena must not be used after the arena is closed, every
+ * access then throws {@code IllegalStateException}. An arena is confined to the
+ * thread that created it: its storage is freed explicitly on close, so allocating,
+ * reading a Num backed by it or closing it from another thread throws
+ * {@code IllegalStateException} as well.
+ * <pre>
+ * try (NumArena arena = new NumArena()) {
+ *     Num x = Num.product(a, b, arena);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Prateek
+ * @see Num#product(Num, Num, NumArena)
+ * @since 1.9
+ */
+public final class NumArena implements AutoCloseable {
+
+    /**
+     * Frees a direct buffer immediately, null when the JVM does not provide it
+     */
+    private static final MethodHandle INVOKE_CLEANER = lookupCleaner();
+
+    private final Thread owner = Thread.currentThread();
+    private final List<ByteBuffer> buffers = new ArrayList<>();
+    private long reservedBytes;
+    private boolean closed;
+
+    private static MethodHandle lookupCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return MethodHandles.lookup().unreflect(invokeCleaner).bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Allocate zeroed off-heap storage for the given number of limbs
+     *
+     * @throws IllegalStateException if the arena is closed or owned by another thread
+     */
+
+    LongBuffer allocate(int limbs) {
+        checkAlive();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(limbs * Long.BYTES).order(ByteOrder.nativeOrder());
+        buffers.add(buffer);
+        reservedBytes += buffer.capacity();
+        return buffer.asLongBuffer();
+    }
+
+    /**
+     * @return bytes of off-heap memory currently held by the arena
+     */
+
+    public long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return true until the arena is closed
+     */
+
+    public boolean isAlive() {
+        return !closed;
+    }
+
+    /**
+     * @throws IllegalStateException if the arena is closed or owned by another thread
+     */
+
+    void checkAlive() {
+        checkOwner();
+        if (closed)
+            throw new IllegalStateException("NumArena is closed");
+    }
+
+    private void checkOwner() {
+        if (Thread.currentThread() != owner)
+            throw new IllegalStateException("NumArena is confined to thread " + owner.getName());
+    }
+
+    /**
+     * Release all the off-heap storage of the arena
+     *
+     * @throws IllegalStateException if the arena is owned by another thread
+     */
+
+    @Override
+    public void close() {
+        checkOwner();
+        if (closed)
+            return;
+        closed = true;
+        if (INVOKE_CLEANER != null) {
+            for (ByteBuffer buffer : buffers) {
+                try {
+                    INVOKE_CLEANER.invokeExact(buffer);
+                } catch (Throwable e) {
+                    // left to the garbage collector
+                }
+            }
+        }
+        buffers.clear();
+        reservedBytes = 0;
+    }
+}
@@ -0,0 +1,249 @@
+package sxv176330;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary format of Num. A record is
+ * <pre>
+ *   byte    version ({@link #VERSION})
+ *   byte    sign (0 positive, 1 negative)
+ *   int     limb count n
+ *   int[n]  limbs of {@link NumKernels#BASE} in the little endian order
+ * </pre>
+ * with every field in the little endian byte order. A limb holds nine decimal
+ * digits in four bytes, so a record takes about 44% of the bytes of the decimal
+ * string and is decoded without parsing any digit.
+ * <p>A file of Nums starts with the magic {@code "NUMS"}, the version and the
+ * count, followed by a table with the absolute offset of every record, so a
+ * memory mapped file is wrapped as is and each Num is decoded only when it is read.
+ *
+ * @author Prateek
+ * @see Num#writeTo(ByteBuffer)
+ * @see Num#readFrom(ByteBuffer)
+ * @since 1.9
+ */
+public final class NumCodec {
+
+    /**
+     * Version of the record and file format
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Bytes of a record before its limbs
+     */
+    static final int RECORD_HEADER_BYTES = 6;
+
+    private static final int FILE_MAGIC = 0x534D554E; // "NUMS" in little endian
+    private static final int FILE_HEADER_BYTES = 12;
+
+    private NumCodec() {
+    }
+
+    /**
+     * @return number of bytes {@link #write(Num, ByteBuffer)} puts in the buffer
+     */
+
+    public static int serializedSize(Num num) {
+        return RECORD_HEADER_BYTES + num.toLimbs().length * Integer.BYTES;
+    }
+
+    /**
+     * Write the record of num at the position of the buffer
+     *
+     * @throws java.nio.BufferOverflowException if the buffer has less than
+     *                                          {@link #serializedSize(Num)} bytes remaining
+     */
+
+    public static void write(Num num, ByteBuffer buffer) {
+        write(num.toLimbs(), num.compareTo(Num.ZERO) < 0, buffer);
+    }
+
+    private static void write(long[] limbs, boolean negative, ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            buffer.put(VERSION);
+            buffer.put((byte) (negative ? 1 : 0));
+            buffer.putInt(limbs.length);
+            for (long limb : limbs)
+                buffer.putInt((int) limb);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Read the record at the position of the buffer and advance past it
+     *
+     * @throws IllegalArgumentException if the record is not in a supported format, or
+     *                                  its sign, limb count or a limb is out of range
+     * @throws BufferUnderflowException if the record is truncated
+     */
+
+    public static Num read(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            byte version = buffer.get();
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported Num format version " + version);
+            byte sign = buffer.get();
+            if (sign != 0 && sign != 1)
+                throw new IllegalArgumentException("Invalid Num sign byte " + sign);
+            int n = buffer.getInt();
+            if (n < 0)
+                throw new IllegalArgumentException("Negative Num limb count " + n);
+            if (n > buffer.remaining() / Integer.BYTES)
+                throw new BufferUnderflowException();
+            long[] limbs = new long[n];
+            for (int i = 0; i < n; i++) {
+                limbs[i] = Integer.toUnsignedLong(buffer.getInt());
+                if (limbs[i] >= NumKernels.BASE)
+                    throw new IllegalArgumentException("Limb out of range: " + limbs[i]);
+            }
+            return Num.wrapLimbs(NumKernels.trim(limbs), sign == 1);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Write the file header, the offset table and the records of nums at the position
+     * of the channel with a single gathering write
+     *
+     * @throws IOException if the channel fails
+     */
+
+    public static void writeAll(FileChannel channel, Num... nums) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[nums.length + 1];
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES + nums.length * Long.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FILE_MAGIC).putInt(VERSION).putInt(nums.length);
+        long offset = header.capacity();
+        for (int i = 0; i < nums.length; i++) {
+            long[] limbs = nums[i].toLimbs();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + limbs.length * Integer.BYTES);
+            write(limbs, nums[i].compareTo(Num.ZERO) < 0, record);
+            buffers[i + 1] = record.flip();
+            header.putLong(offset);
+            offset += record.limit();
+        }
+        buffers[0] = header.flip();
+        long remaining = offset;
+        while (remaining > 0)
+            remaining -= channel.write(buffers);
+    }
+
+    /**
+     * Read every Num of a file written by {@link #writeAll(FileChannel, Num...)}
+     *
+     * @throws IOException              if the channel fails
+     * @throws IllegalArgumentException if the file is not in a supported format
+     */
+
+    public static Num[] readAll(FileChannel channel) throws IOException {
+        MappedNums mapped = new MappedNums(channel);
+        Num[] nums = new Num[mapped.size()];
+        for (int i = 0; i < nums.length; i++)
+            nums[i] = mapped.get(i);
+        return nums;
+    }
+
+    /**
+     * Memory map a file written by {@link #writeAll(FileChannel, Num...)}
+     *
+     * @throws IOException              if the file cannot be mapped
+     * @throws IllegalArgumentException if the file is not in a supported format
+     */
+
+    public static MappedNums map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new MappedNums(channel);
+        }
+    }
+
+    /**
+     * Array of Nums backed by a memory mapped file. The mapping is wrapped without
+     * copying, a Num is decoded from its record only when {@link #get(int)} is called.
+     * <p>A buffer maps at most 2 GB, so the file is mapped in windows of
+     * {@code 2 * WINDOW} bytes starting every {@link #WINDOW} bytes. Every record of at
+     * most {@link #WINDOW} bytes lies in the window starting before it.
+     */
+    public static final class MappedNums {
+
+        /**
+         * Distance between the starts of two windows, and largest record that can be read
+         */
+        static final long WINDOW = (1L << 30) - 1;
+
+        private final ByteBuffer[] windows;
+        private final long length;
+        private final int size;
+
+        MappedNums(FileChannel channel) throws IOException {
+            this.length = channel.size();
+            this.windows = new ByteBuffer[(int) Math.max(1, (length + WINDOW - 1) / WINDOW)];
+            for (int k = 0; k < windows.length; k++) {
+                long start = k * WINDOW;
+                windows[k] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(length - start, 2 * WINDOW)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            if (length < FILE_HEADER_BYTES || windows[0].getInt(0) != FILE_MAGIC)
+                throw new IllegalArgumentException("Not a Num file");
+            int version = windows[0].getInt(4);
+            if (version != VERSION)
+                throw new IllegalArgumentException("Unsupported Num format version " + version);
+            this.size = windows[0].getInt(8);
+            if (size < 0 || FILE_HEADER_BYTES + (long) size * Long.BYTES > length)
+                throw new IllegalArgumentException("Invalid Num file record count " + size);
+        }
+
+        /**
+         * @return number of Nums in the file
+         */
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Decode the i-th Num of the file
+         *
+         * @throws IndexOutOfBoundsException if i is outside [0, size)
+         * @throws IllegalArgumentException  if the offset or the record of the Num is
+         *                                   not valid, or the record is larger than {@link #WINDOW}
+         * @throws BufferUnderflowException  if the record is truncated
+         */
+
+        public Num get(int i) {
+            if (i < 0 || i >= size)
+                throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+            long offset = at(FILE_HEADER_BYTES + (long) i * Long.BYTES).getLong();
+            if (offset < FILE_HEADER_BYTES + (long) size * Long.BYTES || offset > length - RECORD_HEADER_BYTES)
+                throw new IllegalArgumentException("Invalid Num record offset " + offset);
+            ByteBuffer record = at(offset);
+            long limbs = record.getInt(record.position() + 2);
+            if (offset + RECORD_HEADER_BYTES + limbs * Integer.BYTES <= length
+                    && RECORD_HEADER_BYTES + limbs * Integer.BYTES > record.remaining())
+                throw new IllegalArgumentException("Num record of " + limbs + " limbs is too large to map");
+            return read(record);
+        }
+
+        /**
+         * @return buffer positioned at the given offset of the file, with at least
+         * {@link #WINDOW} bytes remaining unless the file ends first
+         */
+
+        private ByteBuffer at(long offset) {
+            ByteBuffer window = windows[(int) (offset / WINDOW)];
+            return window.duplicate().order(ByteOrder.LITTLE_ENDIAN).position((int) (offset % WINDOW));
+        }
+    }
+}
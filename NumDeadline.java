@@ -0,0 +1,428 @@
+package sxv176330;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * NumDeadline bounds the time of the heavy operations of Num. A deadline is an
+ * instant after which the operation gives up, a cancellation flag that another
+ * thread may set, or both:
+ * <pre>
+ * NumDeadline deadline = NumDeadline.after(2, TimeUnit.SECONDS);
+ * Num x = Num.power(new Num(3), 999999, deadline);
+ * </pre>
+ * <p>The deadline aware variants of Num first estimate the cost of the operation
+ * from the sizes of the operands and throw at once if it exceeds the remaining time.
+ * While they run, the kernels check the deadline of the current thread at the
+ * boundaries of the algorithms (a Karatsuba level, a row of the long division, a
+ * step of Newton's iteration or of the binary search, a squaring of the power, a
+ * token of an expression), so an expired or cancelled operation stops within one
+ * such step. Both cases throw {@link CancellationException}.
+ * <p>The estimates count limb operations and convert them with
+ * {@code -Dnum.nanosPerLimbOperation} (default 4), they are meant to reject requests
+ * off by orders of magnitude, not to predict the time precisely.
+ *
+ * @author Prateek
+ * @see Num#power(Num, long, NumDeadline)
+ * @since 1.9
+ */
+public final class NumDeadline {
+
+    /**
+     * Nanoseconds of one limb operation in the estimates, set with {@code -Dnum.nanosPerLimbOperation}
+     */
+    public static final double NANOS_PER_LIMB_OPERATION =
+            Double.parseDouble(System.getProperty("num.nanosPerLimbOperation", "4"));
+
+    /**
+     * Limb operations per limb of the digit level work of Num around the kernels:
+     * packing the digits in limbs, unpacking the result, the decimal round trip of the
+     * results and the digit loops of the binary search
+     */
+    private static final double DIGIT_OVERHEAD = 100;
+
+    /**
+     * Limb operations per decimal digit of a division by a single long, mostly the
+     * latency of the hardware division
+     */
+    private static final double DIVISION_STEP = 2.5;
+
+    private static final double LOG2_3 = Math.log(3) / Math.log(2);
+
+    private static final double LOG10_2 = Math.log10(2);
+
+    /**
+     * Deadline of the operation running on each thread, null outside the deadline aware variants
+     */
+    private static final ThreadLocal<NumDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+    private volatile boolean cancelled;
+
+    private NumDeadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @return deadline expiring after the timeout from now
+     */
+
+    public static NumDeadline after(long timeout, TimeUnit unit) {
+        return new NumDeadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    /**
+     * @return deadline without a time limit, only stopped by {@link #cancel()}
+     */
+
+    public static NumDeadline unbounded() {
+        return new NumDeadline(0, false);
+    }
+
+    /**
+     * Stop the operations using this deadline at their next check, from any thread
+     */
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true once {@link #cancel()} was called
+     */
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return nanoseconds left before the deadline, negative once it is expired,
+     * {@code Long.MAX_VALUE} for an unbounded deadline
+     */
+
+    public long remainingNanos() {
+        return bounded ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @throws CancellationException if the deadline is cancelled or expired
+     */
+
+    public void check() {
+        if (cancelled)
+            throw new CancellationException("Operation cancelled");
+        if (bounded && System.nanoTime() - deadlineNanos > 0)
+            throw new CancellationException("Deadline exceeded");
+    }
+
+    /**
+     * Reject an operation before it starts
+     *
+     * @param estimatedNanos estimated time of the operation
+     * @throws CancellationException if the estimate exceeds the remaining time, or the
+     *                               deadline is cancelled or expired
+     */
+
+    public void admit(double estimatedNanos) {
+        check();
+        long remaining = remainingNanos();
+        if (estimatedNanos > remaining)
+            throw new CancellationException("Estimated " + millis(estimatedNanos)
+                    + " ms exceeds the remaining " + millis(remaining) + " ms");
+    }
+
+    private static String millis(double nanos) {
+        return nanos >= 1e15 ? String.format("%.1e", nanos / 1e6) : Long.toString((long) (nanos / 1e6));
+    }
+
+    /**
+     * Run the operation with this deadline as the deadline of the current thread, the
+     * previous one is restored when it returns
+     */
+
+    <T> T call(Supplier<T> operation) {
+        NumDeadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            check();
+            return operation.get();
+        } finally {
+            if (previous == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Check the deadline of the current thread, called by the kernels between two steps
+     *
+     * @throws CancellationException if the deadline is cancelled or expired
+     */
+
+    static void checkpoint() {
+        NumDeadline deadline = CURRENT.get();
+        if (deadline != null)
+            deadline.check();
+    }
+
+    /*
+     * Cost model. Sizes are in limbs of NumKernels.BASE and costs in limb operations,
+     * the public estimates convert them to nanoseconds.
+     */
+
+    private static double limbs(double digits) {
+        return Math.max(1, digits / NumKernels.BASE_DIGITS);
+    }
+
+    /**
+     * Limb operations of {@link NumKernels#multiply}: schoolbook below the Karatsuba
+     * threshold, n^log2(3) above it, and slices of the shorter operand when unbalanced
+     */
+
+    static double multiplyCost(double n, double m) {
+        double x = Math.max(n, m), y = Math.min(n, m);
+        int threshold = NumKernels.karatsubaThreshold;
+        if (y < threshold)
+            return x * y;
+        double square = (double) threshold * threshold * Math.pow(y / threshold, LOG2_3);
+        return Math.ceil(x / y) * square;
+    }
+
+    /**
+     * Limb operations of {@link Num#divide}. A divisor of less than 18 digits takes a
+     * single pass over the dividend, a dividend of at least {@link Num#divideThreshold}
+     * digits the long division of the limbs, which computes a limb of the quotient with
+     * a row of the divisor. Smaller ones use the binary search.
+     */
+
+    private static double divideCost(double aDigits, double bDigits) {
+        if (bDigits < 18)
+            return aDigits * DIVISION_STEP;
+        if (aDigits >= Num.divideThreshold) {
+            double quotient = Math.max(1, aDigits - bDigits + 1);
+            return limbs(quotient) * limbs(bDigits) * DIVISION_STEP + DIGIT_OVERHEAD * limbs(aDigits);
+        }
+        return binarySearchCost(aDigits, bDigits);
+    }
+
+    /**
+     * Limb operations of the binary search of {@link Num#divide} and {@link Num#mod},
+     * one product of the divisor by a candidate quotient and a few digit loops for every
+     * bit of the dividend
+     */
+
+    private static double binarySearchCost(double aDigits, double bDigits) {
+        double quotient = Math.max(1, aDigits - bDigits + 1);
+        double steps = aDigits / LOG10_2;
+        return steps * (multiplyCost(limbs(quotient), limbs(bDigits)) + DIGIT_OVERHEAD * limbs(aDigits));
+    }
+
+    /**
+     * @return decimal logarithm of |a|, 0 for zero
+     */
+
+    private static double log10(Num a) {
+        if (a.isZero())
+            return 0;
+        String leading = a.leadingDigits(15);
+        return a.log10Floor() - (leading.length() - 1) + Math.log10(Double.parseDouble(leading));
+    }
+
+    private static double nanos(double operations) {
+        return operations * NANOS_PER_LIMB_OPERATION;
+    }
+
+    /**
+     * Limb operations of a power with a result of the given limbs, the last squaring
+     * costs about twice as much as all the previous ones
+     */
+
+    private static double powerCost(double result) {
+        return 1.5 * multiplyCost(result / 2, result / 2) + DIGIT_OVERHEAD * result;
+    }
+
+    /**
+     * @return estimated nanoseconds of {@link Num#product(Num, Num)}
+     */
+
+    public static double productNanos(Num a, Num b) {
+        double n = limbs(a.digitCount()), m = limbs(b.digitCount());
+        return nanos(multiplyCost(n, m) + DIGIT_OVERHEAD * (n + m));
+    }
+
+    /**
+     * @return estimated nanoseconds of {@link Num#power(Num, long)}, the squarings of
+     * the last levels dominate
+     */
+
+    public static double powerNanos(Num a, long n) {
+        if (n <= 1)
+            return nanos(limbs(a.digitCount()));
+        double result = limbs(n * log10(a) + 1);
+        return nanos(powerCost(result));
+    }
+
+    /**
+     * @return estimated nanoseconds of {@link Num#divide(Num, Num)} and {@link Num#mod(Num, Num)}
+     */
+
+    public static double divideNanos(Num a, Num b) {
+        return nanos(divideCost(a.digitCount(), b.digitCount()));
+    }
+
+    /**
+     * @return estimated nanoseconds of {@link Num#squareRoot(Num)}, the Newton steps at
+     * full precision divide n limbs by n/2 limbs
+     */
+
+    public static double squareRootNanos(Num a) {
+        double n = limbs(a.digitCount());
+        return nanos(n * n + DIGIT_OVERHEAD * n);
+    }
+
+    /**
+     * @return estimated nanoseconds of {@link Num#convertBase(int)}, one pass over the
+     * remaining digits for every digit of the result
+     */
+
+    public static double convertBaseNanos(Num a, int base) {
+        double digits = a.digitCount();
+        double resultDigits = digits / Math.log10(Math.max(base, 2)) + 1;
+        // the dividend shrinks linearly, a pass reads half of the digits on average
+        return nanos(resultDigits * digits / 2 * DIVISION_STEP);
+    }
+
+    /**
+     * Estimated nanoseconds of {@link Num#evaluatePostfix(String[])}. The sizes of the
+     * intermediate values are derived from the sizes of the literals, an exponent, a
+     * factorial or a shift that is not a literal small enough to be known makes the
+     * estimate infinite.
+     *
+     * @return the sum of the estimates of the operations, the estimate of the operations
+     * before a malformed part of the expression
+     */
+
+    public static double postfixNanos(String[] expr) {
+        // each entry is {log10 of the magnitude, value or NaN when not known}
+        ArrayDeque<double[]> stack = new ArrayDeque<>();
+        double operations = 0;
+        for (String token : expr) {
+            boolean unary = UtilClass.isUnaryOperator(token);
+            if (!UtilClass.isOperator(token)) {
+                double value = token.length() < 16 ? parseOrNaN(token) : Double.NaN;
+                double log10 = Double.isNaN(value) ? token.length() - 1 : Math.log10(Math.max(Math.abs(value), 1));
+                stack.push(new double[]{log10, value});
+                continue;
+            }
+            if (stack.size() < (unary ? 1 : 2))
+                break;
+            double[] b = stack.pop();
+            double[] a = unary ? b : stack.pop();
+            double[] result = estimate(token, a, b);
+            operations += result[2];
+            stack.push(new double[]{result[0], result[1]});
+        }
+        return nanos(operations);
+    }
+
+    private static double parseOrNaN(String token) {
+        try {
+            return Long.parseLong(token);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * @return {log10 of the result, value of the result or NaN, limb operations}
+     */
+
+    private static double[] estimate(String operator, double[] a, double[] b) {
+        double x = limbs(a[0] + 1), y = limbs(b[0] + 1);
+        double value = Double.NaN;
+        if (!Double.isNaN(a[1]) && !Double.isNaN(b[1])) {
+            double exact = exactValue(operator, a[1], b[1]);
+            if (Math.abs(exact) < 1e15)
+                value = exact;
+        }
+        double log10, cost;
+        switch (operator) {
+            case "+":
+            case "-":
+                log10 = Math.max(a[0], b[0]) + 1;
+                cost = DIGIT_OVERHEAD / 10 * Math.max(x, y);
+                break;
+            case "*":
+                log10 = a[0] + b[0] + 1;
+                cost = multiplyCost(x, y) + DIGIT_OVERHEAD * (x + y);
+                break;
+            case "/":
+                log10 = Math.max(a[0] - b[0], 0);
+                cost = divideCost(a[0] + 1, b[0] + 1);
+                break;
+            case "%":
+                log10 = b[0];
+                cost = (b[0] < 17 ? divideCost(a[0] + 1, b[0] + 1) : binarySearchCost(a[0] + 1, b[0] + 1))
+                        + multiplyCost(x, y);
+                break;
+            case "^":
+                log10 = b[1] * a[0];
+                cost = powerCost(limbs(log10 + 1));
+                break;
+            case "!":
+                // Stirling, log10(n!) ~ n * log10(n / e)
+                log10 = b[1] * Math.max(Math.log10(b[1] / Math.E), 0) + 1;
+                cost = multiplyCost(limbs(log10 + 1), limbs(log10 + 1));
+                break;
+            case "#":
+                // the primorial of n is about e^n
+                log10 = b[1] * Math.log10(Math.E);
+                cost = multiplyCost(limbs(log10 + 1), limbs(log10 + 1));
+                break;
+            case "<<":
+                log10 = a[0] + b[1] * LOG10_2;
+                cost = multiplyCost(x, limbs(b[1] * LOG10_2 + 1)) + DIGIT_OVERHEAD * limbs(log10 + 1);
+                break;
+            case ">>":
+                log10 = Math.max(a[0] - b[1] * LOG10_2, 0);
+                cost = multiplyCost(x, limbs(b[1] * LOG10_2 + 1)) + divideCost(a[0] + 1, b[1] * LOG10_2 + 1);
+                break;
+            default:
+                // bitwise operators convert both operands to binary, quadratic in the limbs
+                log10 = Math.max(a[0], b[0]);
+                cost = x * x + y * y;
+                break;
+        }
+        // an operand that is not a known small value makes the size unknown
+        if (Double.isNaN(log10))
+            log10 = Double.POSITIVE_INFINITY;
+        if (Double.isNaN(cost))
+            cost = Double.POSITIVE_INFINITY;
+        return new double[]{log10, value, cost};
+    }
+
+    private static double exactValue(String operator, double a, double b) {
+        switch (operator) {
+            case "+":
+                return a + b;
+            case "-":
+                return a - b;
+            case "*":
+                return a * b;
+            case "/":
+                // truncated towards zero like Num.divide, the values are below 10^15
+                return b == 0 ? Double.NaN : (double) ((long) a / (long) b);
+            case "%":
+                return b == 0 ? Double.NaN : a % b;
+            case "^":
+                return Math.pow(a, b);
+            default:
+                return Double.NaN;
+        }
+    }
+}
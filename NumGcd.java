@@ -0,0 +1,273 @@
+package sxv176330;
+
+import java.util.Arrays;
+
+/**
+ * NumGcd computes the greatest common divisor and the Bezout cofactors on the limbs
+ * of {@link NumKernels}. The algorithm is chosen by the size of the operands:
+ * <ul>
+ * <li>values that fit in a long use the binary GCD (Stein's algorithm)</li>
+ * <li>operands of up to {@link #halfGcdThreshold} limbs use Lehmer's algorithm on
+ * the two leading limbs, each step replaces about one limb of Euclid divisions by
+ * a linear combination</li>
+ * <li>larger operands use a recursive half-GCD: the matrix reducing the leading half
+ * of the limbs to a quarter is computed recursively and applied to the full operands
+ * with Karatsuba, which makes the GCD subquadratic</li>
+ * </ul>
+ * <p>All the steps are recorded in a {@link Matrix} of cofactors. Euclid's matrices
+ * have a checkerboard sign pattern, so the matrix only stores magnitudes and the
+ * parity of the number of steps. Every matrix computed from leading limbs is checked
+ * against the full operands before it is used, so a wrong quotient guess only costs
+ * a fallback to a smaller step.
+ *
+ * @author Prateek
+ * @see Num#gcd(Num, Num)
+ * @since 1.9
+ */
+final class NumGcd {
+
+    /**
+     * Number of limbs from which a step uses the recursive half-GCD instead of Lehmer
+     */
+    static int halfGcdThreshold = 64;
+
+    private NumGcd() {
+    }
+
+    /**
+     * Cofactor matrix of a sequence of Euclid steps from (a, b). The current pair is
+     * <pre>
+     *   r0 =  sign * (s0 * a - t0 * b)
+     *   r1 = -sign * (s1 * a - t1 * b)
+     * </pre>
+     * where sign is -1 if the number of steps is odd, 1 otherwise.
+     */
+    static final class Matrix {
+        long[] s0, t0, s1, t1;
+        boolean odd;
+
+        Matrix() {
+            this(NumKernels.valueOf(1), NumKernels.EMPTY, NumKernels.EMPTY, NumKernels.valueOf(1), false);
+        }
+
+        Matrix(long[] s0, long[] t0, long[] s1, long[] t1, boolean odd) {
+            this.s0 = s0;
+            this.t0 = t0;
+            this.s1 = s1;
+            this.t1 = t1;
+            this.odd = odd;
+        }
+
+        /**
+         * Record the Euclid step {@code (r0, r1) -> (r1, r0 - q * r1)}
+         */
+
+        void step(long[] q) {
+            long[] s = NumKernels.add(s0, NumKernels.multiply(q, s1));
+            long[] t = NumKernels.add(t0, NumKernels.multiply(q, t1));
+            s0 = s1;
+            t0 = t1;
+            s1 = s;
+            t1 = t;
+            odd = !odd;
+        }
+
+        /**
+         * Append the steps of next, which started from the current pair of this matrix
+         */
+
+        void compose(Matrix next) {
+            long[] s0 = NumKernels.add(NumKernels.multiply(next.s0, this.s0), NumKernels.multiply(next.t0, this.s1));
+            long[] t0 = NumKernels.add(NumKernels.multiply(next.s0, this.t0), NumKernels.multiply(next.t0, this.t1));
+            long[] s1 = NumKernels.add(NumKernels.multiply(next.s1, this.s0), NumKernels.multiply(next.t1, this.s1));
+            long[] t1 = NumKernels.add(NumKernels.multiply(next.s1, this.t0), NumKernels.multiply(next.t1, this.t1));
+            this.s0 = s0;
+            this.t0 = t0;
+            this.s1 = s1;
+            this.t1 = t1;
+            this.odd ^= next.odd;
+        }
+
+        boolean isIdentity() {
+            return s1.length == 0 && t0.length == 0;
+        }
+    }
+
+    /**
+     * Binary GCD of two non negative longs
+     */
+
+    static long binaryGcd(long a, long b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        while (b != 0) {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long temp = a;
+                a = b;
+                b = temp;
+            }
+            b -= a;
+        }
+        return a << shift;
+    }
+
+    /**
+     * @return gcd of the magnitudes a and b
+     */
+
+    static long[] gcd(long[] a, long[] b) {
+        if (NumKernels.compare(a, b) < 0) {
+            long[] temp = a;
+            a = b;
+            b = temp;
+        }
+        long[][] r = {a, b};
+        reduce(r, null, 2);
+        if (r[1].length == 0)
+            return r[0];
+        if (r[0].length > 2)
+            divisionStep(r, null);
+        // both operands fit in a long now
+        return NumKernels.valueOf(binaryGcd(toLong(r[0]), toLong(r[1])));
+    }
+
+    /**
+     * Extended Euclid on the magnitudes {@code a >= b}
+     *
+     * @return matrix m with {@code gcd = sign * (m.s0 * a - m.t0 * b)}, sign = -1 if m.odd,
+     * and the gcd in r[0] of the pair
+     */
+
+    static Matrix extendedGcd(long[][] r) {
+        Matrix m = new Matrix();
+        reduce(r, m, 0);
+        return m;
+    }
+
+    private static long toLong(long[] x) {
+        return x.length == 0 ? 0 : x.length == 1 ? x[0] : x[1] * NumKernels.BASE + x[0];
+    }
+
+    /**
+     * Euclid steps on the pair {@code r[0] >= r[1]} until r[1] has at most stop limbs
+     *
+     * @param r pair to reduce in place
+     * @param m matrix recording the steps, null when the cofactors are not needed
+     */
+
+    static void reduce(long[][] r, Matrix m, int stop) {
+        while (r[1].length > stop) {
+            int n = r[0].length;
+            if (n <= 2 || n - r[1].length >= 2) {
+                divisionStep(r, m);
+                continue;
+            }
+            if (n >= halfGcdThreshold && halfGcdStep(r, m, stop))
+                continue;
+            if (!lehmerStep(r, m))
+                divisionStep(r, m);
+        }
+    }
+
+    private static void divisionStep(long[][] r, Matrix m) {
+        long[][] qAndR = NumKernels.divideAndRemainder(r[0], r[1]);
+        r[0] = r[1];
+        r[1] = qAndR[1];
+        if (m != null)
+            m.step(qAndR[0]);
+    }
+
+    /**
+     * Lehmer's step (Knuth, Algorithm 4.5.2L) on the two leading limbs of r[0] and
+     * the aligned limbs of r[1]
+     *
+     * @return false if the leading limbs do not determine a single quotient
+     */
+
+    private static boolean lehmerStep(long[][] r, Matrix m) {
+        long[] a = r[0], b = r[1];
+        int n = a.length;
+        long x = a[n - 1] * NumKernels.BASE + a[n - 2];
+        long y = (b.length == n ? b[n - 1] * NumKernels.BASE : 0) + b[n - 2];
+        long A = 1, B = 0, C = 0, D = 1;
+        while (y + C > 0 && y + D > 0) {
+            long q = (x + A) / (y + C);
+            if (q != (x + B) / (y + D))
+                break;
+            long t = A - q * C;
+            A = C;
+            C = t;
+            t = B - q * D;
+            B = D;
+            D = t;
+            t = x - q * y;
+            x = y;
+            y = t;
+        }
+        if (B == 0)
+            return false;
+        Matrix step = new Matrix(NumKernels.valueOf(Math.abs(A)), NumKernels.valueOf(Math.abs(B)),
+                NumKernels.valueOf(Math.abs(C)), NumKernels.valueOf(Math.abs(D)), D < 0);
+        return applyStep(r, m, step);
+    }
+
+    /**
+     * Reduce the leading 2d limbs of the pair to d limbs recursively and apply the
+     * resulting matrix to the full pair, which removes about d limbs at once. d is at
+     * most a quarter of the limbs and never takes r[1] below the stop of the caller.
+     *
+     * @return false if the leading limbs did not give a usable matrix
+     */
+
+    private static boolean halfGcdStep(long[][] r, Matrix m, int stop) {
+        int n = r[0].length;
+        int d = Math.min(n / 4, r[1].length - stop);
+        if (d < halfGcdThreshold / 4)
+            return false;
+        int shift = n - 2 * d;
+        long[][] top = {NumKernels.trim(Arrays.copyOfRange(r[0], shift, n)),
+                NumKernels.trim(Arrays.copyOfRange(r[1], shift, r[1].length))};
+        Matrix step = new Matrix();
+        reduce(top, step, d + 2);
+        return !step.isIdentity() && applyStep(r, m, step);
+    }
+
+    /**
+     * Apply the matrix step to the pair when it gives a valid reduced pair
+     *
+     * @return false if the pair is left unchanged
+     */
+
+    private static boolean applyStep(long[][] r, Matrix m, Matrix step) {
+        long[] r0 = combine(step.s0, r[0], step.t0, r[1], !step.odd);
+        long[] r1 = combine(step.s1, r[0], step.t1, r[1], step.odd);
+        if (r0 == null || r1 == null || (r1.length != 0 && NumKernels.compare(r0, r1) <= 0))
+            return false;
+        r[0] = r0;
+        r[1] = r1;
+        if (m != null)
+            m.compose(step);
+        return true;
+    }
+
+    /**
+     * @param positive expected sign of {@code s * a - t * b}
+     * @return {@code |s * a - t * b|}, null if the sign is not the expected one
+     */
+
+    private static long[] combine(long[] s, long[] a, long[] t, long[] b, boolean positive) {
+        long[] x = NumKernels.multiply(s, a);
+        long[] y = NumKernels.multiply(t, b);
+        int compare = NumKernels.compare(x, y);
+        if (compare == 0)
+            return NumKernels.EMPTY;
+        if ((compare > 0) != positive)
+            return null;
+        return compare > 0 ? NumKernels.subtract(x, y) : NumKernels.subtract(y, x);
+    }
+}
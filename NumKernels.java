@@ -0,0 +1,1057 @@
+package sxv176330;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * NumKernels provides the low level limb arithmetic used by {@link Num} for large
+ * operands. The base 10 digits of a Num are packed into limbs of {@link #BASE}
+ * (nine decimal digits per limb) stored in the <i>little endian</i> order, so every
+ * kernel touches 81 times fewer digit pairs than the digit loops in Num.
+ * <p>All arrays returned by the kernels are trimmed: the last element is the most
+ * significant non zero limb and zero is represented by an empty array. The kernels
+ * only work on magnitudes, the sign is handled by the caller.
+ *
+ * @author Prateek
+ * @see Num
+ * @since 1.9
+ */
+final class NumKernels {
+
+    /**
+     * Base of a limb, the largest power of ten whose square still fits in a long
+     */
+    static final long BASE = 1_000_000_000L;
+
+    /**
+     * Number of base 10 digits packed in one limb
+     */
+    static final int BASE_DIGITS = 9;
+
+    static final long[] EMPTY = new long[0];
+
+    /**
+     * Number of limbs below which the schoolbook multiplication is faster than Karatsuba,
+     * see {@link NumTuning}
+     */
+    static int karatsubaThreshold = NumTuning.threshold("num.karatsubaThreshold", 40);
+
+    /**
+     * Number of limbs below which squaring uses the schoolbook multiplication, see
+     * {@link NumTuning}
+     */
+    static int squareThreshold = NumTuning.threshold("num.squareThreshold", 40);
+
+    /**
+     * Set when the product loops and {@link Num#calcSum} run on the SIMD kernels of
+     * {@link NumVectorKernels}: the JVM was started with {@code --add-modules
+     * jdk.incubator.vector}, the platform has at least four long lanes and
+     * {@code -Dnum.vector=false} is not given
+     */
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !"false".equals(System.getProperty("num.vector")) && NumVectorKernels.isSupported();
+
+    /**
+     * Number of limbs (digits in Num) of the shorter operand from which the SIMD kernels
+     * are used, see {@link NumTuning}
+     */
+    static int vectorThreshold = NumTuning.threshold("num.vectorThreshold", 16);
+
+    /**
+     * Number of limbs at or above which the buffer kernels allocate off-heap, set with
+     * {@code -Dnum.offHeapThreshold}
+     */
+    static int offHeapThreshold = Integer.getInteger("num.offHeapThreshold", 1 << 17);
+
+    /**
+     * Number of limbs of x copied to the heap at a time by the buffer schoolbook kernel
+     */
+    private static final int SCHOOLBOOK_CHUNK = 1024;
+
+    private static final LongBuffer EMPTY_BUFFER = LongBuffer.wrap(EMPTY);
+
+    /**
+     * Rows of partial products summed before their carries are propagated, so that a
+     * limb stays below {@code DEFERRED_ROWS * (BASE - 1)^2 + BASE < 2^63}
+     */
+    private static final int DEFERRED_ROWS = 8;
+
+    /**
+     * Squares modulo 512 and modulo {@code 45045 = 5 * 7 * 9 * 11 * 13}
+     */
+    private static final boolean[] SQUARES_512 = new boolean[512];
+    private static final boolean[] SQUARES_45045 = new boolean[45045];
+
+    static {
+        for (int i = 0; i < 512; i++)
+            SQUARES_512[i * i % 512] = true;
+        for (long i = 0; i < 45045; i++)
+            SQUARES_45045[(int) (i * i % 45045)] = true;
+    }
+
+    private NumKernels() {
+    }
+
+    /**
+     * Remove the most significant zero limbs
+     *
+     * @return x itself when it is already trimmed, otherwise a trimmed copy
+     */
+
+    static long[] trim(long[] x) {
+        int n = x.length;
+        while (n > 0 && x[n - 1] == 0)
+            n--;
+        return n == x.length ? x : Arrays.copyOf(x, n);
+    }
+
+    /**
+     * @param v non negative long value
+     * @return limbs of v
+     */
+
+    static long[] valueOf(long v) {
+        if (v == 0)
+            return EMPTY;
+        long[] limbs = new long[3];
+        int n = 0;
+        while (v > 0) {
+            limbs[n++] = v % BASE;
+            v /= BASE;
+        }
+        return Arrays.copyOf(limbs, n);
+    }
+
+    /**
+     * Compare the magnitude of two limb arrays
+     *
+     * @return -1, 0 or 1 as x is less than, equal to or greater than y
+     */
+
+    static int compare(long[] x, long[] y) {
+        if (x.length != y.length)
+            return Integer.compare(x.length, y.length);
+        for (int i = x.length - 1; i >= 0; i--) {
+            if (x[i] != y[i])
+                return Long.compare(x[i], y[i]);
+        }
+        return 0;
+    }
+
+    /**
+     * @return {@code x + y}
+     */
+
+    static long[] add(long[] x, long[] y) {
+        if (x.length < y.length) {
+            long[] temp = x;
+            x = y;
+            y = temp;
+        }
+        long[] res = new long[x.length + 1];
+        long carry = 0;
+        int i = 0;
+        for (; i < y.length; i++) {
+            long sum = x[i] + y[i] + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res[i] = sum - carry * BASE;
+        }
+        for (; i < x.length; i++) {
+            long sum = x[i] + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res[i] = sum - carry * BASE;
+        }
+        res[i] = carry;
+        return trim(res);
+    }
+
+    /**
+     * @return {@code x - y}, assumes x is greater than or equal to y
+     */
+
+    static long[] subtract(long[] x, long[] y) {
+        long[] res = new long[x.length];
+        long borrow = 0;
+        int i = 0;
+        for (; i < y.length; i++) {
+            long diff = x[i] - y[i] - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res[i] = diff + borrow * BASE;
+        }
+        for (; i < x.length; i++) {
+            long diff = x[i] - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res[i] = diff + borrow * BASE;
+        }
+        return trim(res);
+    }
+
+    /**
+     * Add z into res starting at the limb offset, res must be large enough to hold the sum
+     */
+
+    static void addInto(long[] res, long[] z, int offset) {
+        long carry = 0;
+        int i = 0;
+        for (; i < z.length; i++) {
+            long sum = res[offset + i] + z[i] + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res[offset + i] = sum - carry * BASE;
+        }
+        for (; carry != 0; i++) {
+            long sum = res[offset + i] + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res[offset + i] = sum - carry * BASE;
+        }
+    }
+
+    /**
+     * @param m multiplier, 0 <= m <= {@code Integer.MAX_VALUE}
+     * @return {@code x * m}
+     */
+
+    static long[] multiplySmall(long[] x, long m) {
+        if (m == 0 || x.length == 0)
+            return EMPTY;
+        long[] res = new long[x.length + 2];
+        long carry = 0;
+        for (int i = 0; i < x.length; i++) {
+            long t = x[i] * m + carry;
+            carry = t / BASE;
+            res[i] = t - carry * BASE;
+        }
+        res[x.length] = carry % BASE;
+        res[x.length + 1] = carry / BASE;
+        return trim(res);
+    }
+
+    /**
+     * Multiply x and y choosing schoolbook or Karatsuba by the size of the operands
+     *
+     * @return {@code x * y}
+     */
+
+    static long[] multiply(long[] x, long[] y) {
+        if (x.length < y.length) {
+            long[] temp = x;
+            x = y;
+            y = temp;
+        }
+        if (y.length == 0)
+            return EMPTY;
+        if (y.length < karatsubaThreshold)
+            return schoolbook(x, y);
+        if (2 * y.length <= x.length)
+            return multiplyUnbalanced(x, y);
+        return karatsuba(x, y);
+    }
+
+    /**
+     * O(n*m) multiplication, each row propagates its carry immediately
+     */
+
+    static long[] schoolbook(long[] x, long[] y) {
+        long[] res = new long[x.length + y.length];
+        if (VECTORIZED && x.length >= vectorThreshold) {
+            NumVectorKernels.multiplyAccumulate(res, x, y);
+            return trim(res);
+        }
+        for (int i = 0; i < y.length; i++) {
+            long yi = y[i];
+            if (yi == 0)
+                continue;
+            long carry = 0;
+            for (int j = 0; j < x.length; j++) {
+                long t = res[i + j] + x[j] * yi + carry;
+                carry = t / BASE;
+                res[i + j] = t - carry * BASE;
+            }
+            res[i + x.length] = carry;
+        }
+        return trim(res);
+    }
+
+    /**
+     * Karatsuba multiplication, assumes x.length / 2 < y.length <= x.length
+     */
+
+    private static long[] karatsuba(long[] x, long[] y) {
+        NumDeadline.checkpoint();
+        int half = (x.length + 1) / 2;
+        long[] x0 = trim(Arrays.copyOfRange(x, 0, half));
+        long[] x1 = Arrays.copyOfRange(x, half, x.length);
+        long[] y0 = trim(Arrays.copyOfRange(y, 0, Math.min(half, y.length)));
+        long[] y1 = y.length > half ? Arrays.copyOfRange(y, half, y.length) : EMPTY;
+
+        long[] z0 = multiply(x0, y0);
+        long[] z2 = multiply(x1, y1);
+        long[] z1 = subtract(subtract(multiply(add(x0, x1), add(y0, y1)), z0), z2);
+
+        long[] res = new long[x.length + y.length + 1];
+        addInto(res, z0, 0);
+        addInto(res, z1, half);
+        addInto(res, z2, 2 * half);
+        return trim(res);
+    }
+
+    /**
+     * Multiply when x is at least twice as long as y by slicing x in chunks of y.length
+     */
+
+    private static long[] multiplyUnbalanced(long[] x, long[] y) {
+        long[] res = new long[x.length + y.length + 1];
+        for (int from = 0; from < x.length; from += y.length) {
+            long[] chunk = trim(Arrays.copyOfRange(x, from, Math.min(x.length, from + y.length)));
+            addInto(res, multiply(chunk, y), from);
+        }
+        return trim(res);
+    }
+
+    /**
+     * Square of x, the Karatsuba step needs three squares instead of three products
+     *
+     * @return {@code x * x}
+     */
+
+    static long[] square(long[] x) {
+        if (x.length < squareThreshold)
+            return schoolbook(x, x);
+        NumDeadline.checkpoint();
+        int half = (x.length + 1) / 2;
+        long[] x0 = trim(Arrays.copyOfRange(x, 0, half));
+        long[] x1 = Arrays.copyOfRange(x, half, x.length);
+
+        long[] z0 = square(x0);
+        long[] z2 = square(x1);
+        long[] z1 = subtract(subtract(square(add(x0, x1)), z0), z2);
+
+        long[] res = new long[2 * x.length + 1];
+        addInto(res, z0, 0);
+        addInto(res, z1, half);
+        addInto(res, z2, 2 * half);
+        return trim(res);
+    }
+
+    /**
+     * Add x * y into the accumulator. Below the Karatsuba threshold the partial
+     * products are summed into the limbs without carrying, and the carries of a block
+     * of {@link #DEFERRED_ROWS} rows are propagated in one pass, so the inner loop has
+     * no dependency between iterations. Larger operands are multiplied with Karatsuba
+     * and added in place.
+     *
+     * @param acc normalized limbs with room for the sum, normalized again on return
+     */
+
+    static void multiplyAccumulate(long[] acc, long[] x, long[] y) {
+        if (x.length < y.length) {
+            long[] temp = x;
+            x = y;
+            y = temp;
+        }
+        if (y.length == 0)
+            return;
+        if (y.length >= karatsubaThreshold) {
+            addInto(acc, multiply(x, y), 0);
+            return;
+        }
+        if (VECTORIZED && x.length >= vectorThreshold) {
+            NumVectorKernels.multiplyAccumulate(acc, x, y);
+            return;
+        }
+        for (int from = 0; from < y.length; from += DEFERRED_ROWS) {
+            int to = Math.min(y.length, from + DEFERRED_ROWS);
+            for (int i = from; i < to; i++) {
+                long yi = y[i];
+                for (int j = 0; j < x.length; j++)
+                    acc[i + j] += x[j] * yi;
+            }
+            long carry = 0;
+            int k = from;
+            for (; k < to + x.length || carry != 0; k++) {
+                long t = acc[k] + carry;
+                carry = t / BASE;
+                acc[k] = t - carry * BASE;
+            }
+        }
+    }
+
+    /**
+     * Divide x by a single limb divisor
+     *
+     * @param d divisor, 0 < d <= {@code Integer.MAX_VALUE}
+     * @return array where [0] is the quotient and [1] the remainder
+     */
+
+    static long[][] divideSmall(long[] x, long d) {
+        long[] q = new long[x.length];
+        long rem = 0;
+        for (int i = x.length - 1; i >= 0; i--) {
+            long cur = rem * BASE + x[i];
+            q[i] = cur / d;
+            rem = cur % d;
+        }
+        return new long[][]{trim(q), valueOf(rem)};
+    }
+
+    /**
+     * Long division of x by y using Knuth's Algorithm D (TAOCP Vol 2, 4.3.1)
+     *
+     * @return array where [0] is the quotient and [1] the remainder
+     * @throws ArithmeticException if y is zero
+     */
+
+    static long[][] divideAndRemainder(long[] x, long[] y) {
+        if (y.length == 0)
+            throw new ArithmeticException("Division by zero");
+        if (compare(x, y) < 0)
+            return new long[][]{EMPTY, x};
+        if (y.length == 1 && y[0] <= Integer.MAX_VALUE)
+            return divideSmall(x, y[0]);
+
+        int n = y.length;
+        int m = x.length;
+        // scale so that the top limb of the divisor is at least BASE / 2
+        long d = BASE / (y[n - 1] + 1);
+        long[] v = multiplySmall(y, d);
+        long[] u = Arrays.copyOf(multiplySmall(x, d), m + 1);
+        long[] q = new long[m - n + 1];
+
+        for (int j = m - n; j >= 0; j--) {
+            if ((j & 63) == 0)
+                NumDeadline.checkpoint();
+            long num = u[j + n] * BASE + u[j + n - 1];
+            long qhat = num / v[n - 1];
+            long rhat = num % v[n - 1];
+            while (qhat >= BASE || qhat * v[n - 2] > rhat * BASE + u[j + n - 2]) {
+                qhat--;
+                rhat += v[n - 1];
+                if (rhat >= BASE)
+                    break;
+            }
+
+            long carry = 0, borrow = 0;
+            for (int i = 0; i < n; i++) {
+                long p = qhat * v[i] + carry;
+                carry = p / BASE;
+                long t = u[i + j] - (p - carry * BASE) - borrow;
+                borrow = t < 0 ? 1 : 0;
+                u[i + j] = t + borrow * BASE;
+            }
+            long top = u[j + n] - carry - borrow;
+            if (top < 0) {
+                // qhat was one too large, add the divisor back
+                qhat--;
+                carry = 0;
+                for (int i = 0; i < n; i++) {
+                    long sum = u[i + j] + v[i] + carry;
+                    carry = sum >= BASE ? 1 : 0;
+                    u[i + j] = sum - carry * BASE;
+                }
+                top += carry;
+            }
+            u[j + n] = top;
+            q[j] = qhat;
+        }
+        long[] rem = divideSmall(trim(Arrays.copyOf(u, n)), d)[0];
+        return new long[][]{trim(q), rem};
+    }
+
+    /*
+     * Buffer kernels. They mirror the array kernels on LongBuffers, so the limbs can
+     * live either on the heap (wrapped arrays) or off-heap in a NumArena. Buffers
+     * follow the same conventions as arrays: limbs are indexed from 0 and the limit
+     * is the trimmed length.
+     */
+
+    /**
+     * @return zeroed storage for n limbs, off-heap in the arena when n is at least
+     * {@link #offHeapThreshold}
+     */
+
+    static LongBuffer allocate(int n, NumArena arena) {
+        return n >= offHeapThreshold ? arena.allocate(n) : LongBuffer.wrap(new long[n]);
+    }
+
+    static LongBuffer trim(LongBuffer x) {
+        int n = x.limit();
+        while (n > 0 && x.get(n - 1) == 0)
+            n--;
+        return n == x.limit() ? x : x.slice(0, n);
+    }
+
+    static LongBuffer slice(LongBuffer x, int from, int to) {
+        return to <= from ? EMPTY_BUFFER : x.slice(from, to - from);
+    }
+
+    static long[] toArray(LongBuffer x) {
+        long[] limbs = new long[x.limit()];
+        x.get(0, limbs);
+        return limbs;
+    }
+
+    static int compare(LongBuffer x, LongBuffer y) {
+        if (x.limit() != y.limit())
+            return Integer.compare(x.limit(), y.limit());
+        for (int i = x.limit() - 1; i >= 0; i--) {
+            if (x.get(i) != y.get(i))
+                return Long.compare(x.get(i), y.get(i));
+        }
+        return 0;
+    }
+
+    static LongBuffer add(LongBuffer x, LongBuffer y, NumArena arena) {
+        if (x.limit() < y.limit()) {
+            LongBuffer temp = x;
+            x = y;
+            y = temp;
+        }
+        LongBuffer res = allocate(x.limit() + 1, arena);
+        for (int i = 0; i < x.limit(); i++)
+            res.put(i, x.get(i));
+        addInto(res, y, 0);
+        return trim(res);
+    }
+
+    /**
+     * @return {@code x - y}, assumes x is greater than or equal to y
+     */
+
+    static LongBuffer subtract(LongBuffer x, LongBuffer y, NumArena arena) {
+        LongBuffer res = allocate(x.limit(), arena);
+        long borrow = 0;
+        for (int i = 0; i < x.limit(); i++) {
+            long diff = x.get(i) - (i < y.limit() ? y.get(i) : 0) - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res.put(i, diff + borrow * BASE);
+        }
+        return trim(res);
+    }
+
+    static void addInto(LongBuffer res, LongBuffer z, int offset) {
+        long carry = 0;
+        int i = 0;
+        for (; i < z.limit(); i++) {
+            long sum = res.get(offset + i) + z.get(i) + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res.put(offset + i, sum - carry * BASE);
+        }
+        for (; carry != 0; i++) {
+            long sum = res.get(offset + i) + carry;
+            carry = sum >= BASE ? 1 : 0;
+            res.put(offset + i, sum - carry * BASE);
+        }
+    }
+
+    /**
+     * Multiply buffers with the same tiers as {@link #multiply(long[], long[])}. The
+     * result and the temporaries of at least {@link #offHeapThreshold} limbs are
+     * allocated off-heap, the temporaries of each Karatsuba level in their own arena
+     * that is closed as soon as the level is done.
+     *
+     * @param arena arena receiving the result
+     * @return {@code x * y}
+     */
+
+    static LongBuffer multiply(LongBuffer x, LongBuffer y, NumArena arena) {
+        if (x.limit() < y.limit()) {
+            LongBuffer temp = x;
+            x = y;
+            y = temp;
+        }
+        if (y.limit() == 0)
+            return EMPTY_BUFFER;
+        if (y.limit() < karatsubaThreshold)
+            return schoolbook(x, y, arena);
+        if (2 * y.limit() <= x.limit())
+            return multiplyUnbalanced(x, y, arena);
+        return karatsuba(x, y, arena);
+    }
+
+    /**
+     * Schoolbook base case, x is copied to the heap in chunks so the array kernel runs
+     * on it without materializing a huge operand
+     */
+
+    private static LongBuffer schoolbook(LongBuffer x, LongBuffer y, NumArena arena) {
+        long[] ys = toArray(y);
+        LongBuffer res = allocate(x.limit() + y.limit() + 1, arena);
+        for (int from = 0; from < x.limit(); from += SCHOOLBOOK_CHUNK) {
+            long[] chunk = trim(toArray(slice(x, from, Math.min(x.limit(), from + SCHOOLBOOK_CHUNK))));
+            addInto(res, LongBuffer.wrap(schoolbook(chunk, ys)), from);
+        }
+        return trim(res);
+    }
+
+    private static LongBuffer karatsuba(LongBuffer x, LongBuffer y, NumArena arena) {
+        int half = (x.limit() + 1) / 2;
+        LongBuffer x0 = trim(slice(x, 0, half));
+        LongBuffer x1 = slice(x, half, x.limit());
+        LongBuffer y0 = trim(slice(y, 0, Math.min(half, y.limit())));
+        LongBuffer y1 = slice(y, half, y.limit());
+
+        LongBuffer res = allocate(x.limit() + y.limit() + 1, arena);
+        try (NumArena scratch = new NumArena()) {
+            LongBuffer z0 = multiply(x0, y0, scratch);
+            LongBuffer z2 = multiply(x1, y1, scratch);
+            LongBuffer sum = multiply(add(x0, x1, scratch), add(y0, y1, scratch), scratch);
+            LongBuffer z1 = subtract(subtract(sum, z0, scratch), z2, scratch);
+            addInto(res, z0, 0);
+            addInto(res, z1, half);
+            addInto(res, z2, 2 * half);
+        }
+        return trim(res);
+    }
+
+    private static LongBuffer multiplyUnbalanced(LongBuffer x, LongBuffer y, NumArena arena) {
+        LongBuffer res = allocate(x.limit() + y.limit() + 1, arena);
+        for (int from = 0; from < x.limit(); from += y.limit()) {
+            try (NumArena scratch = new NumArena()) {
+                LongBuffer chunk = trim(slice(x, from, Math.min(x.limit(), from + y.limit())));
+                addInto(res, multiply(chunk, y, scratch), from);
+            }
+        }
+        return trim(res);
+    }
+
+    /**
+     * @return {@code 2^k} in limbs
+     */
+
+    static long[] powerOfTwo(int k) {
+        long[] res = valueOf(1);
+        for (int bit = 31 - Integer.numberOfLeadingZeros(k); bit >= 0; bit--) {
+            res = square(res);
+            if (((k >>> bit) & 1) == 1)
+                res = multiplySmall(res, 2);
+        }
+        return res;
+    }
+
+    /**
+     * Number of bits of the magnitude x. The logarithm of the top three limbs gives the
+     * answer unless it is close to an integer, then x is compared with the exact power of two.
+     *
+     * @return {@code floor(log2(x)) + 1}, 0 for zero
+     */
+
+    static int bitLength(long[] x) {
+        int n = x.length;
+        if (n <= 2) {
+            long value = n == 0 ? 0 : n == 1 ? x[0] : x[1] * BASE + x[0];
+            return 64 - Long.numberOfLeadingZeros(value);
+        }
+        double top = (x[n - 1] * (double) BASE + x[n - 2]) * BASE + x[n - 3];
+        double log2 = Math.log(top) / Math.log(2) + (n - 3) * (BASE_DIGITS * Math.log(10) / Math.log(2));
+        long nearest = Math.round(log2);
+        if (Math.abs(log2 - nearest) > 1e-6)
+            return (int) Math.floor(log2) + 1;
+        return compare(x, powerOfTwo((int) nearest)) >= 0 ? (int) nearest + 1 : (int) nearest;
+    }
+
+    /**
+     * @return {@code 10^e} in limbs
+     */
+
+    static long[] powerOfTen(int e) {
+        long[] res = new long[e / BASE_DIGITS + 1];
+        long top = 1;
+        for (int i = e % BASE_DIGITS; i > 0; i--)
+            top *= 10;
+        res[e / BASE_DIGITS] = top;
+        return res;
+    }
+
+    /**
+     * @return {@code x^e} by squaring and multiplying from the top bit of e
+     */
+
+    static long[] pow(long[] x, int e) {
+        if (e == 0)
+            return valueOf(1);
+        long[] res = x;
+        for (int bit = 30 - Integer.numberOfLeadingZeros(e); bit >= 0; bit--) {
+            res = square(res);
+            if (((e >>> bit) & 1) == 1)
+                res = multiply(res, x);
+        }
+        return res;
+    }
+
+    /**
+     * @param d divisor, 0 < d < 9.2 * 10^9
+     * @return {@code x mod d}
+     */
+
+    static long remainder(long[] x, long d) {
+        long rem = 0;
+        for (int i = x.length - 1; i >= 0; i--)
+            rem = (rem * BASE + x[i]) % d;
+        return rem;
+    }
+
+    /**
+     * @return {@code floor(sqrt(x))}
+     */
+
+    static long[] sqrt(long[] x) {
+        return root(x, 2);
+    }
+
+    /**
+     * Floor of the k-th root by Newton's iteration
+     * {@code y = ((k - 1) * y + x / y^(k-1)) / k}, seeded with the root of the leading
+     * limbs in floating point. One step from any positive y lands at or above the
+     * root, and from there the iterates decrease to it.
+     *
+     * @param k root index, k >= 1
+     * @return {@code floor(x^(1/k))}
+     */
+
+    static long[] root(long[] x, int k) {
+        if (x.length == 0 || k == 1)
+            return x;
+        if (bitLength(x) <= k)
+            return valueOf(1);
+        long[] y = rootStep(x, rootEstimate(x, k), k);
+        while (true) {
+            NumDeadline.checkpoint();
+            long[] next = rootStep(x, y, k);
+            if (compare(next, y) >= 0)
+                return y;
+            y = next;
+        }
+    }
+
+    private static long[] rootStep(long[] x, long[] y, int k) {
+        long[] q = divideAndRemainder(x, pow(y, k - 1))[0];
+        return divideSmall(add(multiplySmall(y, k - 1), q), k)[0];
+    }
+
+    /**
+     * Seed of the Newton iteration. Large roots are seeded with the root of the leading
+     * half of the limbs, computed recursively, so the iteration at full precision only
+     * has to double the correct digits once or twice. Otherwise the root of the three
+     * leading limbs in floating point gives about 16 significant digits.
+     *
+     * @return estimate of the k-th root of x, at least 1
+     */
+
+    private static long[] rootEstimate(long[] x, int k) {
+        int n = x.length;
+        int shift = n / (2 * k);
+        if (shift >= 2) {
+            long[] top = root(Arrays.copyOfRange(x, k * shift, n), k);
+            long[] seed = new long[top.length + shift];
+            System.arraycopy(top, 0, seed, shift, top.length);
+            return seed;
+        }
+        double top = 0;
+        for (int i = n - 1; i >= Math.max(0, n - 3); i--)
+            top = top * BASE + x[i];
+        double log10 = Math.log10(top) + BASE_DIGITS * (double) Math.max(0, n - 3);
+        double rootLog = log10 / k;
+        int exponent = Math.max(0, (int) rootLog - 15);
+        long mantissa = Math.max(1, (long) Math.pow(10, rootLog - exponent));
+        return multiply(valueOf(mantissa), powerOfTen(exponent));
+    }
+
+    /**
+     * Reject most non squares by their residues: 512 divides BASE, so x mod 512 is
+     * read from the lowest limb, and x mod 45045 takes one pass over the limbs. About
+     * one non square in 90 survives the filters and has its root checked.
+     *
+     * @return true if x is a perfect square
+     */
+
+    static boolean isSquare(long[] x) {
+        if (x.length == 0)
+            return true;
+        if (!SQUARES_512[(int) (x[0] & 511)] || !SQUARES_45045[(int) remainder(x, 45045)])
+            return false;
+        return compare(square(sqrt(x)), x) == 0;
+    }
+
+    /**
+     * @param oddOnly only look for odd exponents
+     * @return true if {@code x = m^e} for integers m and e >= 2 (e odd if oddOnly)
+     */
+
+    static boolean isPerfectPower(long[] x, boolean oddOnly) {
+        if (compare(x, valueOf(1)) <= 0)
+            return true;
+        int multiplicities = multiplicityGcd(x);
+        if (!oddOnly && multiplicities % 2 == 0 && isSquare(x))
+            return true;
+        int bits = bitLength(x);
+        double log2 = log2(x);
+        boolean odd = (x[0] & 1) == 1;
+        // m^e is also a p-th power for every prime p dividing e
+        for (int p : primesUpTo(bits)) {
+            if (p == 2 || multiplicities % p != 0)
+                continue;
+            int rootBits = bits / p;
+            if (rootBits < 32 ? isPowerOfSmallRoot(x, p, log2)
+                    : rootBits < 62 && odd ? isPowerOfOddRoot(x, p, log2) : isPower(x, p))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * The multiplicity of a prime in a p-th power is a multiple of p. BASE is
+     * {@code 2^9 5^9}, so after the z lowest limbs that are zero, x mod 5^9 is read
+     * from the next limb and x mod 2^64 from the eight next ones, which give the
+     * multiplicities of 5 and 2 unless they are larger.
+     *
+     * @param x positive limbs
+     * @return gcd of the multiplicities of 2 and 5 that are known and positive, 0 when
+     * none is, every exponent of x divides it
+     */
+
+    private static int multiplicityGcd(long[] x) {
+        int z = 0;
+        while (x[z] == 0)
+            z++;
+        int gcd = 0;
+        long low = 0;
+        for (int i = Math.min(x.length, z + 8) - 1; i >= z; i--)
+            low = low * BASE + x[i];
+        if (low != 0)
+            gcd = (int) NumGcd.binaryGcd(gcd, BASE_DIGITS * z + Long.numberOfTrailingZeros(low));
+        long fives = x[z] % 1_953_125;
+        if (fives != 0) {
+            int multiplicity = BASE_DIGITS * z;
+            for (; fives % 5 == 0; fives /= 5)
+                multiplicity++;
+            gcd = (int) NumGcd.binaryGcd(gcd, multiplicity);
+        }
+        return gcd;
+    }
+
+    /**
+     * @return base 2 logarithm of x from its three leading limbs
+     */
+
+    private static double log2(long[] x) {
+        int n = x.length;
+        double top = 0;
+        for (int i = n - 1; i >= Math.max(0, n - 3); i--)
+            top = top * BASE + x[i];
+        return Math.log(top) / Math.log(2) + Math.max(0, n - 3) * (BASE_DIGITS * Math.log(10) / Math.log(2));
+    }
+
+    /**
+     * p-th power test when the root is below 2^32: the rounded floating point root is
+     * the only candidate, and it is compared modulo 2^64 and modulo BASE with the low
+     * limbs of x before the exact power is computed
+     */
+
+    private static boolean isPowerOfSmallRoot(long[] x, int p, double log2) {
+        long m = Math.round(Math.pow(2, log2 / p));
+        // BASE^8 = 0 mod 2^64, so the eight lowest limbs give x mod 2^64
+        long low = 0;
+        for (int i = Math.min(x.length, 8) - 1; i >= 0; i--)
+            low = low * BASE + x[i];
+        long power = 1;
+        for (long b = m, e = p; e > 0; e >>= 1, b *= b) {
+            if ((e & 1) == 1)
+                power *= b;
+        }
+        if (power != low || powMod(m, p, BASE) != x[0])
+            return false;
+        return compare(pow(valueOf(m), p), x) == 0;
+    }
+
+    /**
+     * p-th power test of an odd x when the root is below 2^62. The p-th power is a
+     * bijection on the odd residues modulo 2^64, so x mod 2^64 has a single odd root
+     * {@code x^(1/p) mod 2^64}, which is the only candidate and is compared with the
+     * floating point root before the exact power is computed
+     */
+
+    private static boolean isPowerOfOddRoot(long[] x, int p, double log2) {
+        long low = 0;
+        for (int i = Math.min(x.length, 8) - 1; i >= 0; i--)
+            low = low * BASE + x[i];
+        // inverse of p modulo 2^64 by Newton's iteration, each step doubles the correct bits
+        long inverse = p;
+        for (int i = 0; i < 5; i++)
+            inverse *= 2 - p * inverse;
+        // the odd residues modulo 2^64 have order dividing 2^62, so low^inverse is the root
+        long m = 1;
+        for (long b = low, e = inverse & ((1L << 62) - 1); e != 0; e >>>= 1, b *= b) {
+            if ((e & 1) == 1)
+                m *= b;
+        }
+        double estimate = Math.pow(2, log2 / p);
+        if (m < 0 || Math.abs(m - estimate) > estimate * 1e-9)
+            return false;
+        return compare(pow(valueOf(m), p), x) == 0;
+    }
+
+    /**
+     * @param p odd prime exponent
+     * @return true if x is a p-th power
+     */
+
+    private static boolean isPower(long[] x, int p) {
+        // a p-th power is a p-th power residue modulo every prime q = 1 mod p, the
+        // residues modulo three such primes are taken in one pass over the limbs
+        long[] q = new long[3];
+        int found = 0;
+        for (long c = 2L * p + 1; found < q.length && c < Integer.MAX_VALUE; c += 2L * p) {
+            if (isSmallPrime(c))
+                q[found++] = c;
+        }
+        long[] r = new long[found];
+        for (int i = x.length - 1; i >= 0; i--) {
+            for (int j = 0; j < found; j++)
+                r[j] = (r[j] * BASE + x[i]) % q[j];
+        }
+        for (int j = 0; j < found; j++) {
+            if (r[j] != 0 && powMod(r[j], (q[j] - 1) / p, q[j]) != 1)
+                return false;
+        }
+        return compare(pow(root(x, p), p), x) == 0;
+    }
+
+    /**
+     * Trial division, q below 2^31
+     */
+
+    private static boolean isSmallPrime(long q) {
+        if (q % 2 == 0)
+            return q == 2;
+        for (long d = 3; d * d <= q; d += 2) {
+            if (q % d == 0)
+                return false;
+        }
+        return q > 1;
+    }
+
+    /**
+     * @return {@code b^e mod q} for q below 2^31
+     */
+
+    private static long powMod(long b, long e, long q) {
+        long res = 1;
+        b %= q;
+        while (e > 0) {
+            if ((e & 1) == 1)
+                res = res * b % q;
+            b = b * b % q;
+            e >>= 1;
+        }
+        return res;
+    }
+
+    /**
+     * Convert limbs to binary words of 32 bits in the little endian order, by Horner's
+     * rule {@code words = words * BASE + limb}
+     *
+     * @return trimmed words, the bits of each int are unsigned
+     */
+
+    static int[] toBinary(long[] x) {
+        // log2(BASE) < 30, so every limb adds less than one word
+        int[] words = new int[x.length + 1];
+        int n = 0;
+        for (int i = x.length - 1; i >= 0; i--) {
+            long carry = x[i];
+            for (int j = 0; j < n; j++) {
+                long t = (words[j] & 0xFFFFFFFFL) * BASE + carry;
+                words[j] = (int) t;
+                carry = t >>> 32;
+            }
+            if (carry != 0)
+                words[n++] = (int) carry;
+        }
+        return Arrays.copyOf(words, n);
+    }
+
+    /**
+     * Convert binary words of 32 bits in the little endian order back to limbs, by
+     * Horner's rule {@code limbs = limbs * 2^32 + word}
+     */
+
+    static long[] fromBinary(int[] words) {
+        long[] limbs = new long[words.length * 2 + 1];
+        int n = 0;
+        for (int i = words.length - 1; i >= 0; i--) {
+            long carry = words[i] & 0xFFFFFFFFL;
+            for (int j = 0; j < n; j++) {
+                long t = (limbs[j] << 32) + carry;
+                carry = t / BASE;
+                limbs[j] = t - carry * BASE;
+            }
+            while (carry != 0) {
+                limbs[n++] = carry % BASE;
+                carry /= BASE;
+            }
+        }
+        return trim(Arrays.copyOf(limbs, n));
+    }
+
+    /**
+     * Product of the first count factors using binary splitting. Adjacent factors are
+     * first combined while they fit in a long, then the partial products are multiplied
+     * pairwise so that both operands of every multiplication have similar size.
+     *
+     * @param factors positive factors
+     * @param count   number of factors to use
+     * @return limbs of the product
+     */
+
+    static long[] productOf(long[] factors, int count) {
+        long[][] parts = new long[count + 1][];
+        int n = 0;
+        long acc = 1;
+        for (int i = 0; i < count; i++) {
+            long f = factors[i];
+            if (acc > Long.MAX_VALUE / f) {
+                parts[n++] = valueOf(acc);
+                acc = 1;
+            }
+            acc *= f;
+        }
+        parts[n++] = valueOf(acc);
+        return productOf(parts, 0, n);
+    }
+
+    private static long[] productOf(long[][] parts, int from, int to) {
+        if (to - from == 1)
+            return parts[from];
+        int mid = (from + to) >>> 1;
+        return multiply(productOf(parts, from, mid), productOf(parts, mid, to));
+    }
+
+    /**
+     * Sieve of Eratosthenes over the odd numbers
+     *
+     * @return all primes less than or equal to n in increasing order
+     */
+
+    static int[] primesUpTo(int n) {
+        if (n < 2)
+            return new int[0];
+        // composite[i] represents the odd number 2 * i + 1
+        boolean[] composite = new boolean[n / 2 + 1];
+        int count = 1;
+        for (int i = 1; 2 * i + 1 <= n; i++) {
+            if (composite[i])
+                continue;
+            count++;
+            long p = 2 * i + 1;
+            for (long j = p * p; j <= n; j += 2 * p)
+                composite[(int) (j / 2)] = true;
+        }
+        int[] primes = new int[count];
+        primes[0] = 2;
+        int k = 1;
+        for (int i = 1; 2 * i + 1 <= n; i++) {
+            if (!composite[i])
+                primes[k++] = 2 * i + 1;
+        }
+        return primes;
+    }
+}
@@ -0,0 +1,195 @@
+package sxv176330;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Opt-in instrumentation of the Num kernels. Collects per operation call counts,
+ * operand size histograms, cumulative nanoseconds and allocated limb bytes.
+ * <p>Metrics are enabled by starting the JVM with {@code -Dnum.metrics=true}. The
+ * flag is a static final field, so when it is off the JIT removes every
+ * instrumentation branch from the kernels. When it is on the counters are
+ * published through the {@link NumMetricsMXBean} and {@link #snapshot()}.
+ *
+ * @author Prateek
+ * @see Num
+ * @since 1.9
+ */
+public final class NumMetrics implements NumMetricsMXBean {
+
+    /**
+     * Whether the kernels record metrics, read once from the {@code num.metrics} system property
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("num.metrics");
+
+    /**
+     * Number of buckets of the operand size histogram, the last one collects everything larger
+     */
+    public static final int HISTOGRAM_BUCKETS = 10;
+
+    /**
+     * Instrumented kernels of Num
+     */
+    public enum Operation {
+        SUM, DIFFERENCE, PRODUCT, DIVISION, CONVERT_BASE, TO_STRING
+    }
+
+    private static final NumMetrics INSTANCE = new NumMetrics();
+
+    private final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+
+    private NumMetrics() {
+        for (Operation op : Operation.values())
+            counters.put(op, new Counters());
+    }
+
+    static {
+        if (ENABLED) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(INSTANCE, new ObjectName("sxv176330:type=NumMetrics"));
+            } catch (JMException e) {
+                throw new IllegalStateException("Unable to register NumMetrics MBean", e);
+            }
+        }
+    }
+
+    /**
+     * Record one call of an operation, callers check {@link #ENABLED} first
+     *
+     * @param op             operation that finished
+     * @param startNanos     {@code System.nanoTime()} when the operation started
+     * @param operandDigits  digits of the largest operand
+     * @param allocatedBytes bytes of the limb arrays allocated for the result
+     */
+
+    static void record(Operation op, long startNanos, long operandDigits, long allocatedBytes) {
+        long elapsed = System.nanoTime() - startNanos;
+        Counters c = INSTANCE.counters.get(op);
+        c.calls.increment();
+        c.nanos.add(elapsed);
+        c.allocatedBytes.add(allocatedBytes);
+        c.histogram[bucket(operandDigits)].increment();
+    }
+
+    private static int bucket(long digits) {
+        int bucket = 0;
+        while (digits >= 10 && bucket < HISTOGRAM_BUCKETS - 1) {
+            digits /= 10;
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the current counters of every operation
+     */
+
+    public static Map<Operation, Snapshot> snapshot() {
+        Map<Operation, Snapshot> snapshot = new EnumMap<>(Operation.class);
+        INSTANCE.counters.forEach((op, c) -> snapshot.put(op, c.snapshot()));
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Clear the counters of every operation
+     */
+
+    public static void resetAll() {
+        INSTANCE.counters.values().forEach(Counters::reset);
+    }
+
+    @Override
+    public Map<String, Long> getCalls() {
+        return collect(s -> s.calls);
+    }
+
+    @Override
+    public Map<String, Long> getNanos() {
+        return collect(s -> s.nanos);
+    }
+
+    @Override
+    public Map<String, Long> getAllocatedBytes() {
+        return collect(s -> s.allocatedBytes);
+    }
+
+    @Override
+    public Map<String, long[]> getOperandSizeHistograms() {
+        return collect(s -> s.operandSizeHistogram);
+    }
+
+    @Override
+    public void reset() {
+        resetAll();
+    }
+
+    private static <T> Map<String, T> collect(Function<Snapshot, T> field) {
+        Map<String, T> map = new LinkedHashMap<>();
+        snapshot().forEach((op, s) -> map.put(op.name(), field.apply(s)));
+        return map;
+    }
+
+    /**
+     * Immutable copy of the counters of one operation
+     */
+    public static final class Snapshot {
+        public final long calls;
+        public final long nanos;
+        public final long allocatedBytes;
+        private final long[] operandSizeHistogram;
+
+        Snapshot(long calls, long nanos, long allocatedBytes, long[] operandSizeHistogram) {
+            this.calls = calls;
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.operandSizeHistogram = operandSizeHistogram;
+        }
+
+        /**
+         * @return copy of the histogram, bucket i counts operands of 10^i to 10^(i+1) - 1 digits
+         */
+
+        public long[] operandSizeHistogram() {
+            return operandSizeHistogram.clone();
+        }
+
+        public String toString() {
+            return "calls=" + calls + ", nanos=" + nanos + ", allocatedBytes=" + allocatedBytes;
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder allocatedBytes = new LongAdder();
+        final LongAdder[] histogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+        Counters() {
+            for (int i = 0; i < histogram.length; i++)
+                histogram[i] = new LongAdder();
+        }
+
+        Snapshot snapshot() {
+            long[] buckets = new long[histogram.length];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = histogram[i].sum();
+            return new Snapshot(calls.sum(), nanos.sum(), allocatedBytes.sum(), buckets);
+        }
+
+        void reset() {
+            calls.reset();
+            nanos.reset();
+            allocatedBytes.reset();
+            for (LongAdder bucket : histogram)
+                bucket.reset();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package sxv176330;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link NumMetrics}, registered as
+ * {@code sxv176330:type=NumMetrics} when the metrics are enabled. Every map is
+ * keyed by the name of the {@link NumMetrics.Operation}.
+ *
+ * @author Prateek
+ * @see NumMetrics
+ * @since 1.9
+ */
+public interface NumMetricsMXBean {
+
+    /**
+     * @return number of calls of every operation
+     */
+    Map<String, Long> getCalls();
+
+    /**
+     * @return cumulative nanoseconds spent inside every operation, nested operations included
+     */
+    Map<String, Long> getNanos();
+
+    /**
+     * @return bytes of limb arrays allocated for the results of every operation
+     */
+    Map<String, Long> getAllocatedBytes();
+
+    /**
+     * @return histogram of operand sizes, bucket i counts the calls whose largest
+     * operand has 10^i to 10^(i+1) - 1 digits
+     */
+    Map<String, long[]> getOperandSizeHistograms();
+
+    /**
+     * Clear all the counters
+     */
+    void reset();
+}
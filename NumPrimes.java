@@ -0,0 +1,487 @@
+package sxv176330;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * NumPrimes implements the primality tests of {@link Num} on the limbs of
+ * {@link NumKernels}:
+ * <ul>
+ * <li>trial division by the primes below {@link #TRIAL_LIMIT}, grouped in products
+ * so that one pass over the limbs serves several primes</li>
+ * <li>Miller-Rabin with Montgomery multiplication in base {@link NumKernels#BASE},
+ * with the deterministic bases up to 37 for values below 10^18</li>
+ * <li>the strong Lucas test with Selfridge's parameters, which with the base 2
+ * Miller-Rabin round makes the Baillie-PSW test</li>
+ * </ul>
+ *
+ * @author Prateek
+ * @see Num#isProbablePrime(int)
+ * @since 1.9
+ */
+final class NumPrimes {
+
+    /**
+     * Certainty used by {@link Num#nextProbablePrime()}
+     */
+    static final int DEFAULT_CERTAINTY = 100;
+
+    /**
+     * Trial division uses the primes below this limit
+     */
+    static final int TRIAL_LIMIT = 2000;
+
+    private static final int[] SMALL_PRIMES = NumKernels.primesUpTo(TRIAL_LIMIT);
+
+    /**
+     * Products of consecutive small primes, each below 9 * 10^9 so that
+     * {@code remainder * BASE + limb} fits in a long
+     */
+    private static final long[] GROUP_PRODUCTS;
+
+    /**
+     * Index in SMALL_PRIMES of the first prime of each group, with a final sentinel
+     */
+    private static final int[] GROUP_STARTS;
+
+    /**
+     * Bases making Miller-Rabin deterministic below 3.18 * 10^23
+     */
+    private static final long[] DETERMINISTIC_BASES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+
+    /**
+     * Number of odd candidates sieved at a time by {@link #nextProbablePrime(long[])},
+     * read once per search
+     */
+    static int searchWindow = 1024;
+
+    static {
+        long[] products = new long[SMALL_PRIMES.length];
+        int[] starts = new int[SMALL_PRIMES.length + 1];
+        int groups = 0;
+        long product = 1;
+        for (int i = 0; i < SMALL_PRIMES.length; i++) {
+            if (product > 9_000_000_000L / SMALL_PRIMES[i]) {
+                products[groups++] = product;
+                starts[groups] = i;
+                product = 1;
+            }
+            product *= SMALL_PRIMES[i];
+        }
+        products[groups++] = product;
+        starts[groups] = SMALL_PRIMES.length;
+        GROUP_PRODUCTS = Arrays.copyOf(products, groups);
+        GROUP_STARTS = Arrays.copyOf(starts, groups + 1);
+    }
+
+    private NumPrimes() {
+    }
+
+    /**
+     * @param x magnitude to test
+     * @return true if x is prime with probability at least {@code 1 - 2^-certainty}
+     */
+
+    static boolean isProbablePrime(long[] x, int certainty) {
+        if (certainty <= 0)
+            return true;
+        int trial = trialDivision(x);
+        if (trial != 0)
+            return trial > 0;
+        return passesProbableTests(x, certainty);
+    }
+
+    /**
+     * @return 1 if x is a small prime or has no factor below its square root in the
+     * table, -1 if it is 0, 1 or has a small factor, 0 if it is undecided
+     */
+
+    private static int trialDivision(long[] x) {
+        if (NumKernels.compare(x, NumKernels.valueOf(2)) < 0)
+            return -1;
+        boolean small = x.length == 1 && x[0] < TRIAL_LIMIT;
+        for (int g = 0; g < GROUP_PRODUCTS.length; g++) {
+            long rem = NumKernels.remainder(x, GROUP_PRODUCTS[g]);
+            for (int i = GROUP_STARTS[g]; i < GROUP_STARTS[g + 1]; i++) {
+                if (rem % SMALL_PRIMES[i] == 0)
+                    return small && x[0] == SMALL_PRIMES[i] ? 1 : -1;
+            }
+        }
+        return x.length == 1 && x[0] < (long) TRIAL_LIMIT * TRIAL_LIMIT ? 1 : 0;
+    }
+
+    /**
+     * Miller-Rabin and strong Lucas tests of an odd x without small factors
+     */
+
+    private static boolean passesProbableTests(long[] x, int certainty) {
+        Montgomery mont = new Montgomery(x);
+        // x - 1 = d * 2^s
+        int[] bits = NumKernels.toBinary(NumKernels.subtract(x, NumKernels.valueOf(1)));
+        int s = trailingZeros(bits);
+        if (x.length <= 2) {
+            // x < 10^18, the deterministic bases give an exact answer
+            for (long base : DETERMINISTIC_BASES) {
+                if (!passesMillerRabin(mont, bits, s, NumKernels.valueOf(base)))
+                    return false;
+            }
+            return true;
+        }
+        int rounds = Math.min((certainty + 1) / 2, millerRabinRounds(NumKernels.bitLength(x)));
+        if (!passesMillerRabin(mont, bits, s, NumKernels.valueOf(2)))
+            return false;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long[] range = NumKernels.subtract(x, NumKernels.valueOf(3));
+        for (int i = 1; i < rounds; i++) {
+            // random base in [2, x - 2]
+            long[] base = new long[x.length];
+            for (int j = 0; j < base.length; j++)
+                base[j] = random.nextLong(NumKernels.BASE);
+            base = NumKernels.add(NumKernels.divideAndRemainder(NumKernels.trim(base), range)[1], NumKernels.valueOf(2));
+            if (!passesMillerRabin(mont, bits, s, base))
+                return false;
+        }
+        return passesStrongLucas(mont, x);
+    }
+
+    /**
+     * Rounds of Miller-Rabin by the size of the candidate, the same table as
+     * {@code java.math.BigInteger}
+     */
+
+    private static int millerRabinRounds(int bits) {
+        if (bits < 100)
+            return 50;
+        if (bits < 256)
+            return 27;
+        if (bits < 512)
+            return 15;
+        if (bits < 768)
+            return 8;
+        if (bits < 1024)
+            return 4;
+        return 2;
+    }
+
+    /**
+     * Strong probable prime test to the given base
+     *
+     * @param bits binary words of x - 1 where x is the modulus of mont
+     * @param s    number of trailing zero bits of x - 1
+     */
+
+    private static boolean passesMillerRabin(Montgomery mont, int[] bits, int s, long[] base) {
+        long[] minusOne = NumKernels.subtract(mont.m, mont.one);
+        long[] y = mont.pow(mont.toMontgomery(base), bits, s);
+        if (NumKernels.compare(y, mont.one) == 0 || NumKernels.compare(y, minusOne) == 0)
+            return true;
+        for (int r = 1; r < s; r++) {
+            y = mont.square(y);
+            if (NumKernels.compare(y, minusOne) == 0)
+                return true;
+            if (NumKernels.compare(y, mont.one) == 0)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * Strong Lucas probable prime test with P = 1 and {@code Q = (1 - D) / 4}, where D
+     * is the first of 5, -7, 9, -11, ... with Jacobi symbol {@code (D/x) = -1}
+     */
+
+    private static boolean passesStrongLucas(Montgomery mont, long[] x) {
+        long d = 5;
+        for (int i = 0; jacobi(d, x) != -1; i++) {
+            // no such D exists for a perfect square
+            if (i == 10 && NumKernels.compare(NumKernels.square(NumKernels.sqrt(x)), x) == 0)
+                return false;
+            d = d > 0 ? -d - 2 : -d + 2;
+        }
+        long q = (1 - d) / 4;
+        int[] bits = NumKernels.toBinary(NumKernels.add(x, NumKernels.valueOf(1)));
+        int s = trailingZeros(bits);
+
+        long[] u = mont.one;
+        long[] v = mont.one;
+        long[] qm = mont.small(q);
+        long[] qk = qm;
+        for (int bit = 32 * bits.length - 32 + 30 - Integer.numberOfLeadingZeros(bits[bits.length - 1]); bit >= s; bit--) {
+            // k -> 2k
+            u = mont.multiply(u, v);
+            v = mont.subtract(mont.square(v), mont.add(qk, qk));
+            qk = mont.square(qk);
+            if ((bits[bit >>> 5] >>> (bit & 31) & 1) == 1) {
+                // k -> k + 1
+                long[] nextU = mont.half(mont.add(u, v));
+                v = mont.half(mont.add(mont.multiplySmall(u, d), v));
+                u = nextU;
+                qk = mont.multiply(qk, qm);
+            }
+        }
+        if (u.length == 0)
+            return true;
+        for (int r = 0; r < s; r++) {
+            if (v.length == 0)
+                return true;
+            v = mont.subtract(mont.square(v), mont.add(qk, qk));
+            qk = mont.square(qk);
+        }
+        return false;
+    }
+
+    private static int trailingZeros(int[] bits) {
+        int i = 0;
+        while (bits[i] == 0)
+            i++;
+        return 32 * i + Integer.numberOfTrailingZeros(bits[i]);
+    }
+
+    /**
+     * Jacobi symbol {@code (d/x)} for an odd x greater than |d|
+     */
+
+    private static int jacobi(long d, long[] x) {
+        // x mod 8 is known from the lowest limb since 8 divides BASE
+        long low = x[0] & 7;
+        int sign = 1;
+        if (d < 0) {
+            d = -d;
+            if ((low & 3) == 3)
+                sign = -sign;
+        }
+        // d is odd: (d/x) = (x/d) * (-1)^((d-1)/2 * (x-1)/2)
+        if ((d & 3) == 3 && (low & 3) == 3)
+            sign = -sign;
+        return sign * jacobi(NumKernels.remainder(x, d), d);
+    }
+
+    /**
+     * Jacobi symbol {@code (a/n)} for an odd positive n
+     */
+
+    private static int jacobi(long a, long n) {
+        int result = 1;
+        a %= n;
+        while (a != 0) {
+            while ((a & 1) == 0) {
+                a >>= 1;
+                long r = n & 7;
+                if (r == 3 || r == 5)
+                    result = -result;
+            }
+            long temp = a;
+            a = n;
+            n = temp;
+            if ((a & 3) == 3 && (n & 3) == 3)
+                result = -result;
+            a %= n;
+        }
+        return n == 1 ? result : 0;
+    }
+
+    /**
+     * Sieve windows of odd candidates by the primes below {@code 64 * bits} (at least
+     * the trial division table, at most 2^20), then test the survivors
+     *
+     * @return the smallest probable prime greater than x
+     */
+
+    static long[] nextProbablePrime(long[] x) {
+        if (NumKernels.compare(x, NumKernels.valueOf(2)) < 0)
+            return NumKernels.valueOf(2);
+        long[] start = NumKernels.add(x, NumKernels.valueOf((x[0] & 1) == 0 ? 1 : 2));
+        int limit = Math.max(TRIAL_LIMIT, Math.min(64 * NumKernels.bitLength(x), 1 << 20));
+        int[] primes = limit == TRIAL_LIMIT ? SMALL_PRIMES : NumKernels.primesUpTo(limit);
+        int window = searchWindow;
+        while (true) {
+            // composite[i] represents the odd number start + 2i
+            boolean[] composite = new boolean[window];
+            for (int k = 1; k < primes.length; k++) {
+                int p = primes[k];
+                long rem = NumKernels.remainder(start, p);
+                // start + 2i = 0 mod p for i = -rem / 2 mod p
+                int i = (int) ((p - rem) * ((p + 1) / 2) % p);
+                if (start.length == 1 && start[0] + 2L * i == p)
+                    i += p;
+                for (; i < window; i += p)
+                    composite[i] = true;
+            }
+            for (int i = 0; i < window; i++) {
+                if (composite[i])
+                    continue;
+                long[] candidate = NumKernels.add(start, NumKernels.valueOf(2L * i));
+                if (isProbablePrime(candidate, DEFAULT_CERTAINTY))
+                    return candidate;
+            }
+            start = NumKernels.add(start, NumKernels.valueOf(2L * window));
+        }
+    }
+
+    /**
+     * Montgomery arithmetic modulo an odd m not divisible by 5, with
+     * {@code R = BASE^n} where n is the number of limbs of m. Residues are kept
+     * as trimmed limbs in {@code [0, m)}.
+     */
+    static final class Montgomery {
+        final long[] m;
+        final int n;
+
+        /**
+         * {@code -m^-1 mod BASE}
+         */
+        private final long inverse;
+
+        /**
+         * R mod m, the Montgomery form of 1
+         */
+        final long[] one;
+
+        /**
+         * R^2 mod m
+         */
+        private final long[] r2;
+
+        Montgomery(long[] m) {
+            this.m = m;
+            this.n = m.length;
+            this.inverse = NumKernels.BASE - inverseModBase(m[0]);
+            long[] r = new long[n + 1];
+            r[n] = 1;
+            this.one = NumKernels.divideAndRemainder(r, m)[1];
+            this.r2 = NumKernels.divideAndRemainder(NumKernels.square(one), m)[1];
+        }
+
+        /**
+         * @return {@code a^-1 mod BASE} for a coprime to BASE, by the extended Euclid
+         */
+
+        private static long inverseModBase(long a) {
+            long r0 = NumKernels.BASE, r1 = a, t0 = 0, t1 = 1;
+            while (r1 != 0) {
+                long q = r0 / r1;
+                long temp = r0 - q * r1;
+                r0 = r1;
+                r1 = temp;
+                temp = t0 - q * t1;
+                t0 = t1;
+                t1 = temp;
+            }
+            return t0 < 0 ? t0 + NumKernels.BASE : t0;
+        }
+
+        /**
+         * Montgomery reduction (REDC) one limb at a time
+         *
+         * @param t value below m * R
+         * @return {@code t * R^-1 mod m}
+         */
+
+        long[] reduce(long[] t) {
+            long[] u = Arrays.copyOf(t, 2 * n + 1);
+            for (int i = 0; i < n; i++) {
+                long q = u[i] * inverse % NumKernels.BASE;
+                if (q == 0)
+                    continue;
+                long carry = 0;
+                for (int j = 0; j < n; j++) {
+                    long sum = u[i + j] + q * m[j] + carry;
+                    carry = sum / NumKernels.BASE;
+                    u[i + j] = sum - carry * NumKernels.BASE;
+                }
+                for (int k = i + n; carry != 0; k++) {
+                    long sum = u[k] + carry;
+                    carry = sum / NumKernels.BASE;
+                    u[k] = sum - carry * NumKernels.BASE;
+                }
+            }
+            long[] res = NumKernels.trim(Arrays.copyOfRange(u, n, 2 * n + 1));
+            return NumKernels.compare(res, m) >= 0 ? NumKernels.subtract(res, m) : res;
+        }
+
+        long[] multiply(long[] a, long[] b) {
+            return reduce(NumKernels.multiply(a, b));
+        }
+
+        long[] square(long[] a) {
+            return reduce(NumKernels.square(a));
+        }
+
+        /**
+         * @return Montgomery form of x, which may exceed m
+         */
+
+        long[] toMontgomery(long[] x) {
+            if (NumKernels.compare(x, m) >= 0)
+                x = NumKernels.divideAndRemainder(x, m)[1];
+            return multiply(x, r2);
+        }
+
+        /**
+         * @return Montgomery form of the signed small value v
+         */
+
+        long[] small(long v) {
+            return multiplySmall(one, v);
+        }
+
+        long[] add(long[] a, long[] b) {
+            long[] sum = NumKernels.add(a, b);
+            return NumKernels.compare(sum, m) >= 0 ? NumKernels.subtract(sum, m) : sum;
+        }
+
+        long[] subtract(long[] a, long[] b) {
+            return NumKernels.compare(a, b) >= 0 ? NumKernels.subtract(a, b)
+                    : NumKernels.subtract(NumKernels.add(a, m), b);
+        }
+
+        /**
+         * @return {@code a * v mod m} for a signed v with {@code |v| <= Integer.MAX_VALUE}
+         */
+
+        long[] multiplySmall(long[] a, long v) {
+            long[] product = NumKernels.multiplySmall(a, Math.abs(v));
+            product = NumKernels.divideAndRemainder(product, m)[1];
+            return v < 0 && product.length != 0 ? NumKernels.subtract(m, product) : product;
+        }
+
+        /**
+         * @return {@code a / 2 mod m}
+         */
+
+        long[] half(long[] a) {
+            if (a.length != 0 && (a[0] & 1) == 1)
+                a = NumKernels.add(a, m);
+            return NumKernels.divideSmall(a, 2)[0];
+        }
+
+        /**
+         * Left to right exponentiation with a fixed window of 4 bits
+         *
+         * @param base  Montgomery form of the base
+         * @param bits  binary words of the exponent
+         * @param shift number of low bits of the words to ignore
+         * @return Montgomery form of {@code base^(bits >> shift)}
+         */
+
+        long[] pow(long[] base, int[] bits, int shift) {
+            long[][] table = new long[16][];
+            table[0] = one;
+            for (int i = 1; i < 16; i++)
+                table[i] = multiply(table[i - 1], base);
+            int top = 32 * bits.length - Integer.numberOfLeadingZeros(bits[bits.length - 1]);
+            long[] y = one;
+            for (int bit = top - 1; bit >= shift; ) {
+                int width = Math.min(4, bit - shift + 1);
+                int window = 0;
+                for (int k = 0; k < width; k++, bit--) {
+                    y = square(y);
+                    window = (window << 1) | (bits[bit >>> 5] >>> (bit & 31) & 1);
+                }
+                if (window != 0)
+                    y = multiply(y, table[window]);
+            }
+            return y;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package sxv176330;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NumServer evaluates expressions of Num for other processes over a local TCP socket
+ * or a Unix domain socket, so all the clients share one warm JVM. The protocol is
+ * line based, a request is
+ * <pre>
+ *   INFIX token token ...
+ *   POSTFIX token token ...
+ * </pre>
+ * with the tokens of {@link Num#evaluateInfix} and {@link Num#evaluatePostfix}
+ * separated by spaces, and every request gets one response line, in the order of
+ * the requests:
+ * <pre>
+ *   OK micros value
+ *   ERR micros message
+ * </pre>
+ * where micros is the latency of the request in the server. Clients may pipeline
+ * any number of requests without waiting for the responses.
+ * <p>Each connection runs on its own virtual thread when the JVM provides them
+ * (Java 21 and later). Otherwise connections run on a pool of at most
+ * {@link #MAX_CONNECTIONS} platform threads and further connections are closed at
+ * once. Either way at most one request per processor is evaluated at a time, in
+ * place or concurrently, and at most {@link #MAX_QUEUED_REQUESTS} concurrent
+ * requests wait for their turn, further requests are answered with an error.
+ * <p>The requests already buffered on a connection are read as one batch: the small
+ * ones, made of the linear operators or of products and quotients of operands of at
+ * most {@link #SMALL_OPERAND_DIGITS} digits, are evaluated in place, the others are
+ * evaluated concurrently. Every request, in place or concurrent, is given
+ * {@code -Dnum.server.timeoutMillis} (default 10000) as a {@link NumDeadline}: it is
+ * rejected at once when its estimated time is longer, and stopped at the next
+ * checkpoint of the deadline when the time is over. The responses of a batch are
+ * flushed together. A request longer than
+ * {@code -Dnum.server.maxRequestChars} (default 2^20) is rejected without being
+ * parsed.
+ * <pre>
+ * try (NumServer server = new NumServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+ *     server.start();
+ *     ... connect to server.address() ...
+ * }
+ * </pre>
+ *
+ * @author Prateek
+ * @see Num#evaluateInfix(String[])
+ * @since 1.9
+ */
+public final class NumServer implements AutoCloseable {
+
+    /**
+     * Default of the longest request line, set with {@code -Dnum.server.maxRequestChars}
+     */
+    public static final int MAX_REQUEST_CHARS = Integer.getInteger("num.server.maxRequestChars", 1 << 20);
+
+    /**
+     * Default of the time given to a request, set with {@code -Dnum.server.timeoutMillis}
+     */
+    public static final long TIMEOUT_MILLIS = Long.getLong("num.server.timeoutMillis", 10_000);
+
+    /**
+     * Requests of at most this many chars without a superlinear operator are evaluated
+     * in place by the connection thread
+     */
+    static final int SMALL_REQUEST_CHARS = 1024;
+
+    /**
+     * Most requests read as one batch before the responses are written
+     */
+    static final int MAX_BATCH = 64;
+
+    /**
+     * Most connections served at once without virtual threads
+     */
+    static final int MAX_CONNECTIONS = 256;
+
+    /**
+     * Most concurrent requests waiting to be evaluated
+     */
+    static final int MAX_QUEUED_REQUESTS = 1024;
+
+    /**
+     * Longest operand of a product, quotient or remainder in a small request
+     */
+    static final int SMALL_OPERAND_DIGITS = 18;
+
+    private static final String SUPERLINEAR_OPERATORS = "^!#<";
+    private static final String MULTIPLICATIVE_OPERATORS = "*/%";
+
+    private final SocketAddress requested;
+    private final int maxRequestChars;
+    private final long timeoutMillis;
+    private final ExecutorService connectionExecutor = newExecutor(MAX_CONNECTIONS, 0);
+    private final ExecutorService executor;
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Permits of the evaluations running at once, in place or on the executor
+     */
+    private final Semaphore running;
+
+    /**
+     * Permits of the concurrent requests submitted and not answered yet
+     */
+    private final Semaphore admitted;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAccumulator maxLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    private ServerSocketChannel server;
+    private volatile boolean closed;
+
+    /**
+     * Server with the default limits
+     *
+     * @param address loopback {@link InetSocketAddress}, port 0 for any free port, or a
+     *                {@link UnixDomainSocketAddress}
+     */
+
+    public NumServer(SocketAddress address) {
+        this(address, MAX_REQUEST_CHARS, TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param address         loopback {@link InetSocketAddress}, port 0 for any free port,
+     *                        or a {@link UnixDomainSocketAddress}
+     * @param maxRequestChars longest request line
+     * @param timeoutMillis   time given to a request
+     */
+
+    public NumServer(SocketAddress address, int maxRequestChars, long timeoutMillis) {
+        this(address, maxRequestChars, timeoutMillis, Runtime.getRuntime().availableProcessors(), MAX_QUEUED_REQUESTS);
+    }
+
+    /**
+     * @param maxRunning most requests evaluated at once
+     * @param maxQueued  most concurrent requests waiting to be evaluated
+     */
+
+    NumServer(SocketAddress address, int maxRequestChars, long timeoutMillis, int maxRunning, int maxQueued) {
+        if (maxRequestChars <= 0 || timeoutMillis <= 0 || maxRunning <= 0 || maxQueued < 0)
+            throw new IllegalArgumentException("Limits of the server must be positive");
+        this.requested = address;
+        this.maxRequestChars = maxRequestChars;
+        this.timeoutMillis = timeoutMillis;
+        // admitted bounds the requests before they are submitted, so the queue of the
+        // pool can hold them all while a thread has not taken its next task yet
+        this.executor = newExecutor(maxRunning, maxRunning + maxQueued);
+        this.running = new Semaphore(maxRunning);
+        this.admitted = new Semaphore(maxRunning + maxQueued);
+    }
+
+    /**
+     * Virtual thread per task executor when the JVM has one, otherwise a pool of daemon
+     * threads rejecting the tasks beyond its threads and queue
+     *
+     * @param threads most threads of the pool
+     * @param queued  most tasks waiting for a thread of the pool
+     */
+
+    private static ExecutorService newExecutor(int threads, int queued) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    queued > 0 ? new LinkedBlockingQueue<>(queued) : new SynchronousQueue<>(), task -> {
+                Thread thread = new Thread(task, "num-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * Bind the socket and start accepting connections
+     *
+     * @throws IOException           if the address cannot be bound
+     * @throws IllegalStateException if the server was already started
+     */
+
+    public synchronized void start() throws IOException {
+        if (server != null || closed)
+            throw new IllegalStateException("Server already started");
+        server = requested instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        server.bind(requested);
+        Thread acceptor = new Thread(this::acceptLoop, "num-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the bound address, with the actual port when port 0 was requested
+     * @throws IllegalStateException if the server is not started
+     */
+
+    public synchronized SocketAddress address() throws IOException {
+        if (server == null)
+            throw new IllegalStateException("Server not started");
+        return server.getLocalAddress();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                continue;
+            }
+            connections.add(channel);
+            try {
+                connectionExecutor.execute(() -> serve(channel));
+            } catch (RejectedExecutionException e) {
+                connections.remove(channel);
+                try {
+                    channel.close();
+                } catch (IOException closing) {
+                    // dropped anyway
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        List<Request> batch = new ArrayList<>();
+        try (channel;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))) {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                batch.clear();
+                do {
+                    Request request = readRequest(in, line);
+                    if (request == null)
+                        break;
+                    batch.add(request);
+                } while (in.ready() && batch.size() < MAX_BATCH);
+                if (batch.isEmpty())
+                    return;
+                for (Request request : batch)
+                    request.submit();
+                for (Request request : batch)
+                    request.respond(out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away, its pending requests are dropped
+        } finally {
+            for (Request request : batch)
+                request.abandon();
+            connections.remove(channel);
+        }
+    }
+
+    /**
+     * Read one request line, at most maxRequestChars of it are kept
+     *
+     * @return the request, null at the end of the stream
+     */
+
+    private Request readRequest(BufferedReader in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        boolean oversized = false;
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (line.length() < maxRequestChars)
+                line.append((char) c);
+            else
+                oversized = true;
+        }
+        long start = System.nanoTime();
+        if (c == -1 && line.length() == 0)
+            return null;
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+            line.setLength(line.length() - 1);
+        if (oversized)
+            return new Request(start, null, "Request longer than " + maxRequestChars + " chars");
+        return new Request(start, line.toString(), null);
+    }
+
+    /**
+     * One request of a batch, evaluated in place or on the executor
+     */
+    private final class Request {
+        private final long start;
+        private final String line;
+        private final NumDeadline deadline;
+        private String rejected;
+        private String result;
+        private Future<String> future;
+
+        /**
+         * @param line     request line, null if the request is rejected
+         * @param rejected reason for rejecting the request unread
+         */
+
+        Request(long start, String line, String rejected) {
+            this.start = start;
+            this.line = line;
+            this.rejected = rejected;
+            this.deadline = NumDeadline.after(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void submit() {
+            if (rejected != null)
+                return;
+            if (isSmall(line)) {
+                try {
+                    result = evaluateRunning(line, deadline);
+                } catch (CancellationException e) {
+                    timeouts.increment();
+                    rejected = describe(e);
+                } catch (RuntimeException e) {
+                    rejected = describe(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected = "Server shutting down";
+                }
+            } else if (!admitted.tryAcquire()) {
+                rejected = closed ? "Server shutting down" : "Server busy";
+            } else {
+                try {
+                    future = executor.submit(() -> evaluateRunning(line, deadline));
+                } catch (RejectedExecutionException e) {
+                    admitted.release();
+                    rejected = closed ? "Server shutting down" : "Server busy";
+                }
+            }
+        }
+
+        void respond(Writer out) throws IOException {
+            if (future != null) {
+                long remaining = timeoutMillis * 1_000_000 - (System.nanoTime() - start);
+                try {
+                    result = future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    deadline.cancel();
+                    future.cancel(true);
+                    timeouts.increment();
+                    rejected = "Timed out after " + timeoutMillis + " ms";
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException)
+                        timeouts.increment();
+                    rejected = describe(e.getCause());
+                } catch (CancellationException e) {
+                    rejected = "Server shutting down";
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected = "Server shutting down";
+                } finally {
+                    future = null;
+                    admitted.release();
+                }
+            }
+            long latency = System.nanoTime() - start;
+            requests.increment();
+            latencyNanos.add(latency);
+            maxLatencyNanos.accumulate(latency);
+            out.write(rejected == null ? "OK " : "ERR ");
+            out.write(Long.toString(latency / 1000));
+            out.write(' ');
+            if (rejected == null) {
+                out.write(result);
+            } else {
+                errors.increment();
+                out.write(rejected);
+            }
+            out.write('\n');
+        }
+
+        /**
+         * Stop the concurrent evaluation of a request that will not be answered
+         */
+
+        void abandon() {
+            if (future == null)
+                return;
+            deadline.cancel();
+            future.cancel(true);
+            future = null;
+            admitted.release();
+        }
+    }
+
+    /**
+     * Evaluate one request line once a permit of the running evaluations is free
+     *
+     * @throws InterruptedException if interrupted while waiting for the permit
+     */
+
+    private String evaluateRunning(String line, NumDeadline deadline) throws InterruptedException {
+        running.acquire();
+        try {
+            return evaluate(line, deadline);
+        } finally {
+            running.release();
+        }
+    }
+
+    /**
+     * @return true if the line is short and has no superlinear operator, nor a product,
+     * quotient or remainder with an operand of more than {@link #SMALL_OPERAND_DIGITS} digits
+     */
+
+    private static boolean isSmall(String line) {
+        if (line.length() > SMALL_REQUEST_CHARS)
+            return false;
+        boolean multiplicative = false;
+        int digits = 0;
+        int longest = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (SUPERLINEAR_OPERATORS.indexOf(c) >= 0)
+                return false;
+            if (MULTIPLICATIVE_OPERATORS.indexOf(c) >= 0)
+                multiplicative = true;
+            digits = Character.isDigit(c) ? digits + 1 : 0;
+            longest = Math.max(longest, digits);
+        }
+        return !multiplicative || longest <= SMALL_OPERAND_DIGITS;
+    }
+
+    /**
+     * Evaluate one request line
+     *
+     * @return the decimal value
+     * @throws IllegalArgumentException                   if the line is not a valid request
+     * @throws java.util.concurrent.CancellationException if the deadline rejects or stops it
+     */
+
+    static String evaluate(String line, NumDeadline deadline) {
+        String[] tokens = line.trim().split("\\s+");
+        String[] expr = new String[tokens.length - 1];
+        System.arraycopy(tokens, 1, expr, 0, expr.length);
+        if (expr.length == 0)
+            throw new IllegalArgumentException("Empty expression");
+        switch (tokens[0]) {
+            case "INFIX":
+                return Num.evaluateInfix(expr, deadline).toString();
+            case "POSTFIX":
+                return Num.evaluatePostfix(expr, deadline).toString();
+            default:
+                throw new IllegalArgumentException("Unknown request " + tokens[0]);
+        }
+    }
+
+    private static String describe(Throwable e) {
+        String message = e.getMessage();
+        if (message == null || message.isEmpty())
+            return e.getClass().getSimpleName();
+        return e.getClass().getSimpleName() + ": " + message.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    /**
+     * @return number of requests answered
+     */
+
+    public long requests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return number of requests answered with ERR, timeouts included
+     */
+
+    public long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * @return number of requests that did not finish in time, or were rejected because
+     * their estimated time exceeded the timeout
+     */
+
+    public long timeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return sum of the latencies of the answered requests in nanoseconds
+     */
+
+    public long latencyNanos() {
+        return latencyNanos.sum();
+    }
+
+    /**
+     * @return largest latency of an answered request in nanoseconds
+     */
+
+    public long maxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    /**
+     * Stop accepting, close every connection and cancel the pending requests. The
+     * socket file of a Unix domain address is deleted.
+     */
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            if (server != null)
+                server.close();
+            for (SocketChannel channel : connections)
+                channel.close();
+        } finally {
+            connectionExecutor.shutdownNow();
+            executor.shutdownNow();
+            if (requested instanceof UnixDomainSocketAddress)
+                Files.deleteIfExists(((UnixDomainSocketAddress) requested).getPath());
+        }
+    }
+
+    /**
+     * Serve until the JVM is stopped
+     *
+     * @param args a port of the loopback interface, or the path of a Unix domain socket
+     */
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: NumServer port|socket-path");
+            System.exit(2);
+        }
+        SocketAddress address = args[0].matches("\\d+")
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))
+                : UnixDomainSocketAddress.of(Path.of(args[0]));
+        NumServer server = new NumServer(address);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // exiting anyway
+            }
+        }));
+        System.out.println("NumServer listening on " + server.address());
+        Thread.currentThread().join();
+    }
+}
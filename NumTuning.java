@@ -0,0 +1,361 @@
+package sxv176330;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * NumTuning holds the sizes at which Num switches between the tiers of its
+ * algorithms, which depend on the machine:
+ * <ul>
+ * <li>{@code num.vectorThreshold}, limbs from which the schoolbook product and
+ * calcSum run on the SIMD kernels, only measured when they are loaded</li>
+ * <li>{@code num.karatsubaThreshold}, limbs from which the limb product uses
+ * Karatsuba instead of the schoolbook multiplication</li>
+ * <li>{@code num.squareThreshold}, the same crossover for squaring</li>
+ * <li>{@code num.packedProductThreshold}, digits from which product packs the digits
+ * in limbs instead of multiplying them one by one</li>
+ * <li>{@code num.divideThreshold}, digits of the dividend from which divide uses the
+ * long division of the limbs instead of the binary search</li>
+ * </ul>
+ * Each threshold is read once, when the class using it is loaded, from the system
+ * property of the same name, else from the profile file {@code -Dnum.profile}
+ * (default {@code ~/.num/profile.properties}), else the built-in default is used.
+ * A missing or unreadable profile, or a value that is not a positive integer, falls
+ * back to the default, and an unreadable profile is reported as a warning of the
+ * {@link System.Logger} named after this class.
+ * <p>{@code java -cp target/classes sxv176330.NumTuning [profile]} calibrates the
+ * running machine: it times both tiers of every threshold on growing operands, takes
+ * the first size from which the upper tier wins twice in a row, and writes the
+ * profile. The new values are used by the next JVM. The timed runs change the
+ * thresholds while they measure, so they run in a child JVM and the thresholds of
+ * the calling JVM are never written after the classes are loaded.
+ *
+ * @author Prateek
+ * @see Num
+ * @since 1.9
+ */
+public final class NumTuning {
+
+    /**
+     * Profile file read at startup, set with {@code -Dnum.profile}
+     */
+    public static final Path PROFILE = Paths.get(System.getProperty("num.profile",
+            Paths.get(System.getProperty("user.home"), ".num", "profile.properties").toString()));
+
+    private static final System.Logger LOGGER = System.getLogger(NumTuning.class.getName());
+
+    private static final Properties LOADED = load(PROFILE);
+
+    /**
+     * Argument of {@link #main} running the measurements in the child JVM
+     */
+    private static final String MEASURE = "--measure";
+
+    /**
+     * Minimum nanoseconds of one timed batch of calls
+     */
+    private static final long BATCH_NANOS = 2_000_000;
+
+    /**
+     * Timed batches of every measurement, the fastest one is kept
+     */
+    private static final int ROUNDS = 5;
+
+    private static final Random RANDOM = new Random(176330);
+
+    /**
+     * Result of the timed calls, so the JIT cannot remove them
+     */
+    private static volatile Object sink;
+
+    private NumTuning() {
+    }
+
+    /**
+     * @param name         system property and profile key of the threshold
+     * @param defaultValue threshold when neither gives a positive integer
+     * @return value of the threshold in this JVM
+     */
+
+    static int threshold(String name, int defaultValue) {
+        return threshold(LOADED, name, defaultValue);
+    }
+
+    /**
+     * @param profile      thresholds read from a profile file
+     * @param name         system property and profile key of the threshold
+     * @param defaultValue threshold when neither gives a positive integer
+     * @return the system property if it is set, else the value in the profile
+     */
+
+    static int threshold(Properties profile, String name, int defaultValue) {
+        String value = System.getProperty(name, profile.getProperty(name));
+        if (value == null)
+            return defaultValue;
+        try {
+            int threshold = Integer.parseInt(value.trim());
+            return threshold > 0 ? threshold : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the properties of the profile file, empty when it is missing or unreadable
+     */
+
+    static Properties load(Path path) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            // no profile, every threshold keeps its default
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.log(System.Logger.Level.WARNING, "Ignoring unreadable profile " + path, e);
+            properties.clear();
+        }
+        return properties;
+    }
+
+    /**
+     * @return the thresholds in effect, by property name
+     */
+
+    public static Map<String, Integer> thresholds() {
+        Map<String, Integer> thresholds = new LinkedHashMap<>();
+        thresholds.put("num.vectorThreshold", NumKernels.vectorThreshold);
+        thresholds.put("num.karatsubaThreshold", NumKernels.karatsubaThreshold);
+        thresholds.put("num.squareThreshold", NumKernels.squareThreshold);
+        thresholds.put("num.packedProductThreshold", Num.packedProductThreshold);
+        thresholds.put("num.divideThreshold", Num.divideThreshold);
+        return thresholds;
+    }
+
+    /**
+     * Measure the thresholds on this machine in a child JVM, started with the same
+     * class path and Vector API module as this one. The thresholds of this JVM are not
+     * changed.
+     *
+     * @return the measured thresholds, by property name, without the SIMD threshold
+     * when the SIMD kernels are not loaded
+     * @throws IOException if the child JVM cannot be started or fails
+     */
+
+    public static Map<String, Integer> calibrate() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+            command.add("--add-modules=jdk.incubator.vector");
+        String vector = System.getProperty("num.vector");
+        if (vector != null)
+            command.add("-Dnum.vector=" + vector);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(NumTuning.class.getName());
+        command.add(MEASURE);
+        Process child = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        Map<String, Integer> thresholds = new LinkedHashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length == 2)
+                    thresholds.put(fields[0], Integer.parseInt(fields[1]));
+            }
+            int status = child.waitFor();
+            if (status != 0)
+                throw new IOException("Calibration JVM exited with status " + status);
+        } catch (InterruptedException e) {
+            child.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Calibration interrupted");
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected output of the calibration JVM", e);
+        }
+        return thresholds;
+    }
+
+    /**
+     * Measure the thresholds in this JVM, run by the child JVM of {@link #calibrate()}.
+     * Each threshold is measured with the ones before it set to their measured values,
+     * as the profile will set them, and keeps its measured value afterwards.
+     */
+
+    private static Map<String, Integer> measure() {
+        Map<String, Integer> thresholds = new LinkedHashMap<>();
+        if (NumKernels.VECTORIZED) {
+            NumKernels.vectorThreshold = crossover(4, 256, 4, n -> {
+                long[] x = randomLimbs(n);
+                long[] y = randomLimbs(n);
+                return vector -> {
+                    NumKernels.vectorThreshold = vector ? 0 : Integer.MAX_VALUE;
+                    sink = NumKernels.schoolbook(x, y);
+                };
+            });
+            thresholds.put("num.vectorThreshold", NumKernels.vectorThreshold);
+        }
+        // one Karatsuba level over schoolbook halves against the schoolbook product
+        NumKernels.karatsubaThreshold = crossover(8, 256, 4, n -> {
+            long[] x = randomLimbs(n);
+            long[] y = randomLimbs(n);
+            return karatsubaStep -> {
+                NumKernels.karatsubaThreshold = karatsubaStep ? n : Integer.MAX_VALUE;
+                sink = NumKernels.multiply(x, y);
+            };
+        });
+        thresholds.put("num.karatsubaThreshold", NumKernels.karatsubaThreshold);
+        NumKernels.squareThreshold = crossover(8, 256, 4, n -> {
+            long[] x = randomLimbs(n);
+            return karatsubaStep -> {
+                NumKernels.squareThreshold = karatsubaStep ? n : Integer.MAX_VALUE;
+                sink = NumKernels.square(x);
+            };
+        });
+        thresholds.put("num.squareThreshold", NumKernels.squareThreshold);
+        // digits of both operands, the threshold compares the index of the top digit
+        Num.packedProductThreshold = crossover(4, 128, 2, n -> {
+            Num a = randomNum(n);
+            Num b = randomNum(n);
+            return packedProduct -> {
+                Num.packedProductThreshold = packedProduct ? 0 : Integer.MAX_VALUE;
+                sink = Num.prod(a, b);
+            };
+        }) - 1;
+        thresholds.put("num.packedProductThreshold", Num.packedProductThreshold);
+        // the divisor has half of the digits, and at least 18 so it is not a long
+        Num.divideThreshold = crossover(20, 1000, 10, n -> {
+            Num a = randomNum(n);
+            Num b = randomNum(Math.max(n / 2, 18));
+            return longDivision -> {
+                Num.divideThreshold = longDivision ? 0 : Integer.MAX_VALUE;
+                sink = Num.divide(a, b);
+            };
+        });
+        thresholds.put("num.divideThreshold", Num.divideThreshold);
+        return thresholds;
+    }
+
+    /**
+     * Benchmark of the two tiers on operands of one size
+     */
+    private interface Tiers {
+        void run(boolean upperTier);
+    }
+
+    /**
+     * @param from  first size timed
+     * @param to    last size timed, returned when the upper tier never wins twice
+     * @param step  difference of two consecutive sizes
+     * @param tiers benchmark of both tiers on operands of the given size
+     * @return the first size from which the upper tier is faster at two consecutive sizes
+     */
+
+    private static int crossover(int from, int to, int step, IntFunction<Tiers> tiers) {
+        // run both tiers before the first measurement, so it times compiled code
+        Tiers warmup = tiers.apply((from + to) / 2);
+        nanosPerCall(() -> warmup.run(false));
+        nanosPerCall(() -> warmup.run(true));
+        int candidate = -1;
+        for (int n = from; n <= to; n += step) {
+            Tiers sized = tiers.apply(n);
+            boolean upperWins = nanosPerCall(() -> sized.run(true)) < nanosPerCall(() -> sized.run(false));
+            if (!upperWins)
+                candidate = -1;
+            else if (candidate < 0)
+                candidate = n;
+            else
+                return candidate;
+        }
+        return to;
+    }
+
+    /**
+     * @return nanoseconds of one call, the fastest of {@link #ROUNDS} batches lasting
+     * at least {@link #BATCH_NANOS}
+     */
+
+    private static double nanosPerCall(Runnable op) {
+        int calls = 1;
+        long elapsed;
+        while ((elapsed = time(op, calls)) < BATCH_NANOS)
+            calls *= 2;
+        double best = (double) elapsed / calls;
+        for (int round = 1; round < ROUNDS; round++)
+            best = Math.min(best, (double) time(op, calls) / calls);
+        return best;
+    }
+
+    private static long time(Runnable op, int calls) {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+            op.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long[] randomLimbs(int n) {
+        long[] limbs = new long[n];
+        for (int i = 0; i < n; i++)
+            limbs[i] = 1 + (long) (RANDOM.nextDouble() * (NumKernels.BASE - 1));
+        return limbs;
+    }
+
+    private static Num randomNum(int digits) {
+        StringBuilder sb = new StringBuilder(digits);
+        sb.append(1 + RANDOM.nextInt(9));
+        for (int i = 1; i < digits; i++)
+            sb.append(RANDOM.nextInt(10));
+        return new Num(sb.toString());
+    }
+
+    /**
+     * Write the thresholds to a profile file
+     *
+     * @throws IOException if the file cannot be written
+     */
+
+    public static void store(Map<String, Integer> thresholds, Path path) throws IOException {
+        Properties properties = new Properties();
+        thresholds.forEach((name, value) -> properties.setProperty(name, Integer.toString(value)));
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            properties.store(out, "Num thresholds calibrated on " + System.getProperty("os.arch")
+                    + ", " + System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        }
+    }
+
+    /**
+     * Calibrate the thresholds and write them to the profile given as argument, or to
+     * {@link #PROFILE}
+     */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1 && MEASURE.equals(args[0])) {
+            measure().forEach((name, value) -> System.out.println(name + " " + value));
+            return;
+        }
+        Path path = args.length > 0 ? Paths.get(args[0]) : PROFILE;
+        Map<String, Integer> current = thresholds();
+        Map<String, Integer> measured = calibrate();
+        measured.forEach((name, value) -> System.out.println(name + " " + current.get(name) + " -> " + value));
+        store(measured, path);
+        System.out.println("Profile written to " + path);
+    }
+}
@@ -0,0 +1,182 @@
+package sxv176330;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * NumVectorKernels are the SIMD versions of the product loops of {@link NumKernels}
+ * and of the digit loop of {@link Num#calcSum}, written with the incubating Vector
+ * API. They are only loaded when {@link NumKernels#VECTORIZED} is set, which needs
+ * the JVM option {@code --add-modules jdk.incubator.vector}.
+ * <ul>
+ * <li>addition adds the lanes independently, then resolves the carries of a whole
+ * vector at once: with g the lanes that generate a carry and p the lanes that
+ * propagate one, the lanes receiving a carry are the bits of
+ * {@code ((g << 1) + carryIn + p) ^ p}</li>
+ * <li>multiply-accumulate adds whole rows of partial products into the accumulator
+ * and keeps it in carry-save form: after every block of rows each limb is split into
+ * {@code q * BASE + r} and replaced by r plus the q of the limb below, so no carry
+ * chain runs until the final normalization</li>
+ * </ul>
+ * Subtraction and the addition of {@link NumKernels} stay scalar: their loops have
+ * no division and the mask round trips cost more than they save. The Vector API
+ * version of the borrow loop in {@code SubtractKernelBenchmark} takes more than
+ * twice the time of the scalar loop of {@link Num#calcDiff}.
+ *
+ * @author Prateek
+ * @see NumKernels
+ * @since 1.9
+ */
+final class NumVectorKernels {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private static final int LANES = SPECIES.length();
+
+    private static final long LANE_MASK = (1L << LANES) - 1;
+
+    private static final double INVERSE_BASE = 1.0 / NumKernels.BASE;
+
+    /**
+     * Mask of the lanes receiving a carry for every combination of bits
+     */
+    private static final VectorMask<Long>[] CARRY_MASKS = carryMasks();
+
+    /**
+     * Rows of partial products summed between two carry-save passes, a limb stays below
+     * {@code ROWS * (BASE - 1)^2 + 2^34 < 2^63}
+     */
+    private static final int ROWS = 8;
+
+    private NumVectorKernels() {
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static VectorMask<Long>[] carryMasks() {
+        VectorMask<Long>[] masks = new VectorMask[1 << LANES];
+        for (int bits = 0; bits < masks.length; bits++)
+            masks[bits] = VectorMask.fromLong(SPECIES, bits);
+        return masks;
+    }
+
+    /**
+     * @return true if the preferred species has at least four long lanes and converts
+     * between long and double lanes of the same shape
+     */
+    static boolean isSupported() {
+        return LANES >= 4 && DoubleVector.SPECIES_PREFERRED.length() == LANES;
+    }
+
+    /**
+     * {@code res = x + y} on the first xn digits of x and yn digits of y
+     *
+     * @param xn   number of digits of x, at least yn
+     * @param base base of the digits
+     * @param res  room for xn digits
+     * @return the carry out of the top digit
+     */
+
+    static long add(long[] x, int xn, long[] y, int yn, long base, long[] res) {
+        long carry = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(yn); i < bound; i += LANES) {
+            LongVector s = LongVector.fromArray(SPECIES, x, i).add(LongVector.fromArray(SPECIES, y, i));
+            long g = s.compare(VectorOperators.GE, base).toLong();
+            long p = s.compare(VectorOperators.EQ, base - 1).toLong();
+            long in = ((g << 1) + carry + p) ^ p;
+            s = s.add(1, CARRY_MASKS[(int) (in & LANE_MASK)]);
+            s = s.sub(base, s.compare(VectorOperators.GE, base));
+            s.intoArray(res, i);
+            carry = in >>> LANES;
+        }
+        for (; i < yn; i++) {
+            long sum = x[i] + y[i] + carry;
+            carry = sum >= base ? 1 : 0;
+            res[i] = sum - carry * base;
+        }
+        for (; i < xn && carry != 0; i++) {
+            long sum = x[i] + carry;
+            carry = sum >= base ? 1 : 0;
+            res[i] = sum - carry * base;
+        }
+        System.arraycopy(x, i, res, i, xn - i);
+        return carry;
+    }
+
+    /**
+     * Add x * y into the accumulator, limbs of {@link NumKernels#BASE}
+     *
+     * @param acc normalized limbs with room for the sum, normalized again on return
+     */
+
+    static void multiplyAccumulate(long[] acc, long[] x, long[] y) {
+        long[] carries = new long[x.length + ROWS + 1];
+        for (int from = 0; from < y.length; from += ROWS) {
+            int to = Math.min(y.length, from + ROWS);
+            for (int i = from; i < to; i++) {
+                long yi = y[i];
+                if (yi == 0)
+                    continue;
+                int j = 0;
+                for (int bound = SPECIES.loopBound(x.length); j < bound; j += LANES) {
+                    LongVector.fromArray(SPECIES, acc, i + j)
+                            .add(LongVector.fromArray(SPECIES, x, j).mul(yi))
+                            .intoArray(acc, i + j);
+                }
+                for (; j < x.length; j++)
+                    acc[i + j] += x[j] * yi;
+            }
+            carrySave(acc, from, to - 1 + x.length, carries);
+        }
+        long carry = 0;
+        for (int k = 0; k < acc.length && (k < x.length + y.length || carry != 0); k++) {
+            long t = acc[k] + carry;
+            carry = t / NumKernels.BASE;
+            acc[k] = t - carry * NumKernels.BASE;
+        }
+    }
+
+    /**
+     * Split each limb of {@code acc[from, to)} in {@code q * BASE + r} and replace it by
+     * r plus the q of the limb below, the top q goes to {@code acc[to]}. The quotient
+     * is estimated in floating point, which is off by at most one, and corrected.
+     *
+     * @param carries scratch of at least {@code to - from + 1} limbs
+     */
+
+    private static void carrySave(long[] acc, int from, int to, long[] carries) {
+        carries[0] = 0;
+        int k = from;
+        for (int bound = from + SPECIES.loopBound(to - from); k < bound; k += LANES) {
+            LongVector t = LongVector.fromArray(SPECIES, acc, k);
+            LongVector q = (LongVector) ((DoubleVector) t.convert(VectorOperators.L2D, 0))
+                    .mul(INVERSE_BASE).convert(VectorOperators.D2L, 0);
+            LongVector r = t.sub(q.mul(NumKernels.BASE));
+            VectorMask<Long> low = r.compare(VectorOperators.LT, 0);
+            q = q.sub(1, low);
+            r = r.add(NumKernels.BASE, low);
+            VectorMask<Long> high = r.compare(VectorOperators.GE, NumKernels.BASE);
+            q = q.add(1, high);
+            r = r.sub(NumKernels.BASE, high);
+            r.intoArray(acc, k);
+            q.intoArray(carries, k - from + 1);
+        }
+        for (; k < to; k++) {
+            long q = acc[k] / NumKernels.BASE;
+            acc[k] -= q * NumKernels.BASE;
+            carries[k - from + 1] = q;
+        }
+        k = from;
+        for (int bound = from + SPECIES.loopBound(to - from); k < bound; k += LANES) {
+            LongVector.fromArray(SPECIES, acc, k)
+                    .add(LongVector.fromArray(SPECIES, carries, k - from))
+                    .intoArray(acc, k);
+        }
+        for (; k < to; k++)
+            acc[k] += carries[k - from];
+        acc[to] += carries[to - from];
+    }
+}
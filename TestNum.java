@@ -0,0 +1,1026 @@
+package sxv176330;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Checks the results of Num against java.math.BigInteger on fixed and random
+ * operands. Prints every mismatch and exits with status 1 if there is any.
+ * <p>With arguments, only the test groups of these names are run, this is how
+ * the groups needing other JVM options run in a child JVM.
+ *
+ * @author Prateek
+ * @see Num
+ */
+public class TestNum {
+
+    private static final Random RANDOM = new Random(176330);
+
+    private static int checks, failures;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            for (String group : args)
+                TestNum.class.getDeclaredMethod(group).invoke(null);
+            report();
+            return;
+        }
+        factorial();
+        fibonacci();
+        metrics();
+        codec();
+        offHeap();
+        arenaConfinement();
+        division();
+        sharedDivisor();
+        compactValues();
+        bitwise();
+        gcd();
+        primes();
+        perfectPower();
+        roots();
+        dotProducts();
+        borrows();
+        server();
+        output();
+        digits();
+        cancellation();
+        serverDeadline();
+        expressions();
+        longOverloads();
+        tuning();
+        report();
+    }
+
+    private static void report() {
+        System.out.println(checks + " checks, " + failures + " failures");
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    static void factorial() {
+        BigInteger expected = BigInteger.ONE;
+        for (int n = 0; n <= 300; n++) {
+            if (n > 0)
+                expected = expected.multiply(BigInteger.valueOf(n));
+            check("factorial(" + n + ")", expected, Num.factorial(n));
+        }
+        for (int n = 0; n <= 60; n += 3)
+            for (int k = 0; k <= n; k += 4)
+                check("binomial(" + n + ", " + k + ")", binomial(n, k), Num.binomial(n, k));
+    }
+
+    static void fibonacci() {
+        // moduli of one, two, three and five limbs
+        BigInteger[] moduli = {BigInteger.ONE, BigInteger.TWO, BigInteger.valueOf(999_999_937),
+                random(18).add(BigInteger.TEN.pow(17)), random(27).add(BigInteger.TEN.pow(26)),
+                random(45).add(BigInteger.TEN.pow(44))};
+        BigInteger f = BigInteger.ZERO, next = BigInteger.ONE;
+        for (int n = 0; n <= 20000; n++) {
+            if (n <= 300 || n % 1000 == 0) {
+                check("fibonacci(" + n + ")", f, Num.fibonacci(n));
+                // L(n) = F(n-1) + F(n+1) = 2F(n+1) - F(n)
+                check("lucas(" + n + ")", next.shiftLeft(1).subtract(f), Num.lucas(n));
+                for (BigInteger m : moduli)
+                    check("fibonacciMod(" + n + ", " + m + ")", f.mod(m), Num.fibonacciMod(n, num(m)));
+            }
+            BigInteger sum = f.add(next);
+            f = next;
+            next = sum;
+        }
+        for (long n : new long[]{1L << 40, 999_999_999_999_999_999L, Long.MAX_VALUE})
+            for (BigInteger m : moduli)
+                check("fibonacciMod(" + n + ", " + m + ")", fibonacciMod(n, m), Num.fibonacciMod(n, num(m)));
+        checkBoolean("fibonacciMod(5, 0)", true, Num.fibonacciMod(5, Num.ZERO) == null);
+        checkBoolean("fibonacciMod(5, -7)", true, Num.fibonacciMod(5, new Num(-7)) == null);
+        expectException("fibonacci(-1)", ArithmeticException.class, () -> Num.fibonacci(-1));
+        expectException("lucas(-1)", ArithmeticException.class, () -> Num.lucas(-1));
+    }
+
+    /**
+     * The counters are only collected when the JVM starts with -Dnum.metrics=true
+     */
+    static void metrics() throws IOException, InterruptedException {
+        inChildJvm("metricsEnabled", "-Dnum.metrics=true");
+    }
+
+    static void metricsEnabled() throws JMException {
+        checkBoolean("NumMetrics.ENABLED", true, NumMetrics.ENABLED);
+        checkBoolean("NumMetrics MBean registered", true, ManagementFactory.getPlatformMBeanServer()
+                .isRegistered(new ObjectName("sxv176330:type=NumMetrics")));
+        // the largest operand has 50 digits, histogram bucket 1
+        Num a = num(random(49).add(BigInteger.TEN.pow(49)));
+        Num b = num(random(29).add(BigInteger.TEN.pow(29)));
+        metered(NumMetrics.Operation.SUM, () -> Num.calcSum(a, b));
+        metered(NumMetrics.Operation.DIFFERENCE, () -> Num.calcDiff(a, b));
+        metered(NumMetrics.Operation.PRODUCT, () -> Num.prod(a, b));
+        metered(NumMetrics.Operation.DIVISION, () -> Num.calcDivide(a, b));
+        metered(NumMetrics.Operation.TO_STRING, a::toString);
+        NumMetrics.resetAll();
+        checkLong("calls after resetAll", 0, NumMetrics.snapshot().get(NumMetrics.Operation.SUM).calls);
+    }
+
+    /**
+     * Run the operation alone and check that it is counted once
+     */
+    private static void metered(NumMetrics.Operation op, Runnable operation) {
+        NumMetrics.resetAll();
+        operation.run();
+        NumMetrics.Snapshot snapshot = NumMetrics.snapshot().get(op);
+        checkLong(op + " calls", 1, snapshot.calls);
+        checkLong(op + " operands of 10 to 99 digits", 1, snapshot.operandSizeHistogram()[1]);
+        checkBoolean(op + " allocated bytes " + snapshot.allocatedBytes, true, snapshot.allocatedBytes > 0);
+    }
+
+    static void codec() throws IOException {
+        BigInteger[] xs = {BigInteger.ZERO, BigInteger.TEN.negate(), random(50), random(200).negate()};
+        Num[] nums = new Num[xs.length];
+        for (int i = 0; i < xs.length; i++)
+            nums[i] = num(xs[i]);
+        Path file = Files.createTempFile("nums", ".bin");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                NumCodec.writeAll(channel, nums);
+            }
+            Num[] read;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                read = NumCodec.readAll(channel);
+            }
+            for (int i = 0; i < xs.length; i++) {
+                checkBoolean("readAll[" + i + "] equals", true, read[i].equals(nums[i]));
+                checkLong("readAll[" + i + "] hashCode", nums[i].hashCode(), read[i].hashCode());
+                check("readAll[" + i + "]", xs[i], read[i]);
+            }
+            byte[] valid = Files.readAllBytes(file);
+            // record count, first offset, then sign and limb count of the first record
+            expectInvalid("negative record count", file, valid, 8, -1);
+            expectInvalid("offset inside the table", file, valid, 12, 0);
+            expectInvalid("negative limb count", file, valid, 12 + 8 * xs.length + 2, -1);
+            byte[] sign = valid.clone();
+            sign[12 + 8 * xs.length + 1] = 2;
+            Files.write(file, sign);
+            expectInvalid("invalid sign byte", file);
+        } finally {
+            Files.delete(file);
+        }
+        // a Num that is read keeps its limbs, every operation must accept them
+        for (int i = 0; i < 200; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(i % 2 == 0 ? 20 : 300));
+            BigInteger y = random(1 + RANDOM.nextInt(60)).add(BigInteger.ONE);
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            ByteBuffer buffer = ByteBuffer.allocate(NumCodec.serializedSize(num(x)));
+            num(x).writeTo(buffer);
+            Num a = Num.readFrom(buffer.flip());
+            String operands = "(read " + x + ", " + y + ")";
+            check("add" + operands, x.add(y), Num.add(a, num(y)));
+            check("subtract" + operands, x.subtract(y), Num.subtract(a, num(y)));
+            check("product" + operands, x.multiply(y), Num.product(a, num(y)));
+            check("divide" + operands, x.divide(y), Num.divide(a, num(y)));
+            check("product" + operands + " by a long", x.multiply(BigInteger.valueOf(7)), Num.product(a, 7));
+            checkLong("compareTo" + operands, x.compareTo(y), Integer.signum(a.compareTo(num(y))));
+            check("read " + x, x, a);
+        }
+    }
+
+    static void offHeap() {
+        int threshold = NumKernels.offHeapThreshold;
+        // every result of at least one limb is kept in the arena
+        NumKernels.offHeapThreshold = 1;
+        try (NumArena arena = new NumArena()) {
+            for (int i = 0; i < 200; i++) {
+                BigInteger x = random(1 + RANDOM.nextInt(100));
+                BigInteger y = i % 4 == 0 ? x : random(1 + RANDOM.nextInt(100));
+                if (RANDOM.nextBoolean())
+                    x = x.negate();
+                if (RANDOM.nextBoolean())
+                    y = y.negate();
+                Num a = num(x).offHeap(arena), b = num(y).offHeap(arena);
+                String operands = "(" + x + ", " + y + ")";
+                check("add" + operands + " off-heap", x.add(y), Num.add(a, b, arena));
+                check("subtract" + operands + " off-heap", x.subtract(y), Num.subtract(a, b, arena));
+                check("product" + operands + " off-heap", x.multiply(y), Num.product(a, b, arena));
+                check("subtract" + operands + " off-heap to zero", BigInteger.ZERO, Num.subtract(a, a, arena));
+                check("add" + operands + " off-heap to zero", BigInteger.ZERO,
+                        Num.add(b, num(y.negate()), arena));
+            }
+        } finally {
+            NumKernels.offHeapThreshold = threshold;
+        }
+    }
+
+    /**
+     * Another thread can neither read the Nums of an arena nor close it
+     */
+    static void arenaConfinement() throws InterruptedException {
+        int threshold = NumKernels.offHeapThreshold;
+        NumKernels.offHeapThreshold = 1;
+        NumArena arena = new NumArena();
+        try {
+            BigInteger x = random(50).add(BigInteger.TEN.pow(50));
+            Num a = num(x).offHeap(arena);
+            checkBoolean("isOffHeap", true, a.isOffHeap());
+            Thread other = new Thread(() -> {
+                expectException("toString on another thread", IllegalStateException.class, a::toString);
+                expectException("offHeap on another thread", IllegalStateException.class, () -> num(x).offHeap(arena));
+                expectException("close on another thread", IllegalStateException.class, arena::close);
+            });
+            other.start();
+            other.join();
+            checkBoolean("arena alive after close on another thread", true, arena.isAlive());
+            check("off-heap Num on the owner thread", x, a);
+        } finally {
+            arena.close();
+            NumKernels.offHeapThreshold = threshold;
+        }
+        checkBoolean("arena alive after close", false, arena.isAlive());
+    }
+
+    static void division() {
+        for (int i = 0; i < 2000; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(120));
+            BigInteger y = random(1 + RANDOM.nextInt(60));
+            if (y.signum() == 0)
+                continue;
+            String operands = "(" + x + ", " + y + ")";
+            // mod takes a non-negative dividend and a positive divisor
+            check("mod" + operands, x.mod(y), Num.mod(num(x), num(y)));
+            if (RANDOM.nextBoolean())
+                y = y.negate();
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            operands = "(" + x + ", " + y + ")";
+            Num a = num(x), b = num(y);
+            check("divide" + operands, x.divide(y), Num.divide(a, b));
+            check("divide" + operands + " dividend", x, a);
+            check("divide" + operands + " divisor", y, b);
+        }
+        // the small values are shared, dividing by them must not change their sign
+        for (long m = -128; m < 0; m++) {
+            check("calcDivide(" + m + ", 2)", BigInteger.valueOf(m / 2), Num.calcDivide(Num.valueOf(m), Num.valueOf(2)));
+            Num.calcDivide(num(random(40)), Num.valueOf(m));
+            check("valueOf(" + m + ") after divide", BigInteger.valueOf(m), Num.valueOf(m));
+        }
+    }
+
+    /**
+     * Divide by a shared small value on one thread while another reads it
+     */
+    static void sharedDivisor() throws InterruptedException {
+        Num dividend = num(random(200));
+        Thread divider = new Thread(() -> {
+            for (int i = 0; i < 200; i++)
+                Num.calcDivide(dividend, Num.valueOf(-5));
+        });
+        divider.start();
+        int corrupted = 0;
+        while (divider.isAlive())
+            if (!Num.valueOf(-5).toString().equals("-5"))
+                corrupted++;
+        divider.join();
+        checks++;
+        if (corrupted > 0) {
+            failures++;
+            System.out.println("valueOf(-5) read as positive " + corrupted + " times during calcDivide");
+        }
+    }
+
+    /**
+     * A Num of a long below 10^18 has no digits until an operation needs them
+     */
+    static void compactValues() {
+        long[] edges = {0, 1, -1, 9, -10, 1024, 1025, -128, -129, 999_999_999, 1_000_000_000,
+                999_999_999_999_999_999L, -999_999_999_999_999_999L, 1_000_000_000_000_000_000L,
+                Long.MAX_VALUE, Long.MIN_VALUE};
+        BigInteger y = random(39).add(BigInteger.TEN.pow(39));
+        for (int i = 0; i < 300; i++) {
+            long x = i < edges.length ? edges[i] : RANDOM.nextLong() >> RANDOM.nextInt(64);
+            BigInteger bx = BigInteger.valueOf(x);
+            Num digits = num(bx);
+            String name = "Num(" + x + ")";
+            check(name + " + " + y, bx.add(y), Num.add(new Num(x), num(y)));
+            check(y + " - " + name, y.subtract(bx), Num.subtract(num(y), new Num(x)));
+            check(name + " * " + y, bx.multiply(y), Num.product(new Num(x), num(y)));
+            check(name + " * " + x, bx.multiply(bx), Num.product(new Num(x), new Num(x)));
+            if (x != 0)
+                check(y + " / " + name, y.divide(bx), Num.divide(num(y), new Num(x)));
+            checkLong(name + " compareTo " + y, -1, Integer.signum(new Num(x).compareTo(num(y))));
+            checkBoolean(name + " equals", true, new Num(x).equals(digits) && digits.equals(new Num(x)));
+            checkLong(name + " hashCode", digits.hashCode(), new Num(x).hashCode());
+            check(name + " by2", new BigInteger(digits.by2().toString()), new Num(x).by2());
+            check(name + " valueOf", bx, Num.valueOf(x));
+            check(name, bx, new Num(x));
+        }
+    }
+
+    static void bitwise() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(i % 2 == 0 ? 18 : 80));
+            BigInteger y = random(1 + RANDOM.nextInt(i % 3 == 0 ? 18 : 80));
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            if (RANDOM.nextBoolean())
+                y = y.negate();
+            Num a = num(x), b = num(y);
+            String operands = "(" + x + ", " + y + ")";
+            check("and" + operands, x.and(y), Num.and(a, b));
+            check("or" + operands, x.or(y), Num.or(a, b));
+            check("xor" + operands, x.xor(y), Num.xor(a, b));
+            check("not(" + x + ")", x.not(), Num.not(a));
+            int n = RANDOM.nextInt(200);
+            check("shiftLeft(" + x + ", " + n + ")", x.shiftLeft(n), Num.shiftLeft(a, n));
+            check("shiftRight(" + x + ", " + n + ")", x.shiftRight(n), Num.shiftRight(a, n));
+        }
+    }
+
+    static void gcd() {
+        for (int i = 0; i < 500; i++) {
+            BigInteger common = random(1 + RANDOM.nextInt(20));
+            BigInteger x = random(1 + RANDOM.nextInt(60)).multiply(common);
+            BigInteger y = random(1 + RANDOM.nextInt(60)).multiply(common);
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            if (RANDOM.nextBoolean())
+                y = y.negate();
+            Num a = num(x), b = num(y);
+            String operands = "(" + x + ", " + y + ")";
+            check("gcd" + operands, x.gcd(y), Num.gcd(a, b));
+            Num[] egcd = Num.extendedGcd(a, b);
+            check("extendedGcd" + operands, x.gcd(y), egcd[0]);
+            check("extendedGcd" + operands + " coefficients", x.gcd(y),
+                    Num.add(Num.product(a, egcd[1]), Num.product(b, egcd[2])));
+            if (x.signum() != 0 && y.signum() != 0)
+                check("lcm" + operands, x.multiply(y).abs().divide(x.gcd(y)), Num.lcm(a, b));
+        }
+    }
+
+    static void primes() throws InterruptedException {
+        long[] carmichael = {561, 1105, 1729, 2465, 2821, 6601, 8911, 10585, 15841, 29341, 41041,
+                46657, 52633, 62745, 63973, 75361, 101101, 115921, 126217, 162401, 172081, 188461,
+                252601, 278545, 294409, 314821, 334153, 340561, 399001, 410041, 449065, 488881, 512461};
+        for (long n : carmichael)
+            checkBoolean("isProbablePrime(Carmichael " + n + ")", false, new Num(n).isProbablePrime(100));
+        // (6k+1)(12k+1)(18k+1) is a Carmichael number when the three factors are prime
+        for (int digits : new int[]{4, 8, 12, 20}) {
+            BigInteger k = random(digits);
+            while (!chernickPrimes(k))
+                k = k.add(BigInteger.ONE);
+            BigInteger n = BigInteger.valueOf(6).multiply(k).add(BigInteger.ONE)
+                    .multiply(BigInteger.valueOf(12).multiply(k).add(BigInteger.ONE))
+                    .multiply(BigInteger.valueOf(18).multiply(k).add(BigInteger.ONE));
+            checkBoolean("isProbablePrime(Carmichael " + n + ")", false, num(n).isProbablePrime(100));
+        }
+        // strong pseudoprimes to base 2, the last ones also to the next primes up to 23
+        long[] strong = {2047, 3277, 4033, 4681, 8321, 15841, 29341, 42799, 49141, 52633, 65281,
+                74665, 80581, 85489, 88357, 90751, 1373653, 25326001, 3215031751L, 2152302898747L,
+                3474749660383L, 341550071728321L, 3825123056546413051L};
+        for (long n : strong)
+            checkBoolean("isProbablePrime(strong pseudoprime " + n + ")", false, new Num(n).isProbablePrime(100));
+        for (int bits : new int[]{40, 64, 100, 200, 400}) {
+            BigInteger p = BigInteger.probablePrime(bits, RANDOM);
+            BigInteger q = BigInteger.probablePrime(bits + RANDOM.nextInt(3), RANDOM);
+            checkBoolean("isProbablePrime(" + p + ")", true, num(p).isProbablePrime(100));
+            checkBoolean("isProbablePrime(" + p + " * " + q + ")", false, num(p.multiply(q)).isProbablePrime(100));
+            checkBoolean("isProbablePrime(" + p + "^2)", false, num(p.multiply(p)).isProbablePrime(100));
+        }
+        Num[] nums = new Num[300];
+        boolean[] expected = new boolean[nums.length];
+        for (int i = 0; i < nums.length; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(i % 3 == 0 ? 60 : 12));
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            // the sign is ignored as in BigInteger
+            expected[i] = x.isProbablePrime(100);
+            nums[i] = num(x);
+            checkBoolean("isProbablePrime(" + x + ")", expected[i], nums[i].isProbablePrime(100));
+        }
+        checkBoolean("isProbablePrime(nums, 100)", true, Arrays.equals(expected, Num.isProbablePrime(nums, 100)));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            checkBoolean("isProbablePrime(nums, 100, executor)", true,
+                    Arrays.equals(expected, Num.isProbablePrime(nums, 100, executor)));
+        } finally {
+            executor.shutdown();
+        }
+        int window = NumPrimes.searchWindow;
+        // with windows of 4 odd candidates most searches cross several windows
+        NumPrimes.searchWindow = 4;
+        try {
+            for (int i = 0; i < 200; i++) {
+                BigInteger x = random(1 + RANDOM.nextInt(i % 2 == 0 ? 40 : 6));
+                check("nextProbablePrime(" + x + ")", x.nextProbablePrime(), num(x).nextProbablePrime());
+            }
+            // the prime gap of 1132 after 1693182318746371
+            BigInteger gap = BigInteger.valueOf(1693182318746371L);
+            check("nextProbablePrime(" + gap + ")", gap.nextProbablePrime(), num(gap).nextProbablePrime());
+        } finally {
+            NumPrimes.searchWindow = window;
+        }
+        expectException("nextProbablePrime(-7)", ArithmeticException.class, () -> new Num(-7).nextProbablePrime());
+    }
+
+    static void perfectPower() {
+        int[] exponents = {2, 3, 5, 6, 7, 12, 31, 61, 67, 101};
+        for (int i = 0; i < 300; i++) {
+            int e = exponents[RANDOM.nextInt(exponents.length)];
+            // m >= 10 so that m^e + 1 and m^e - 1 are never powers (Mihailescu)
+            BigInteger m = random(2 + RANDOM.nextInt(i % 2 == 0 ? 10 : 25)).add(BigInteger.TEN);
+            if (RANDOM.nextBoolean())
+                m = m.multiply(BigInteger.TEN.pow(RANDOM.nextInt(3)));
+            BigInteger x = m.pow(e);
+            String name = "isPerfectPower(" + m + "^" + e;
+            checkBoolean(name + ")", true, num(x).isPerfectPower());
+            checkBoolean(name + " + 1)", false, num(x.add(BigInteger.ONE)).isPerfectPower());
+            checkBoolean(name + " - 1)", false, num(x.subtract(BigInteger.ONE)).isPerfectPower());
+            // -(m^e) is the odd power (-m^(e/q))^q for an odd prime q dividing e
+            if (e != 2)
+                checkBoolean("-" + name + ")", true, num(x.negate()).isPerfectPower());
+            // 2 divides 2 m^e once when m is odd
+            if (m.testBit(0))
+                checkBoolean(name + " * 2)", false, num(x.shiftLeft(1)).isPerfectPower());
+        }
+    }
+
+    /**
+     * Roots next to exact powers, where a truncated root is off by one if the Newton
+     * iteration stops early or the seed is too small
+     */
+    static void roots() {
+        for (int k = 2; k <= 10; k++) {
+            for (int i = 0; i < 30; i++) {
+                BigInteger p = i == 0 ? BigInteger.TWO : i == 1 ? BigInteger.TEN.pow(9)
+                        : random(1 + RANDOM.nextInt(i < 15 ? 12 : 60)).add(BigInteger.TWO);
+                BigInteger power = p.pow(k);
+                BigInteger[] xs = {power.subtract(BigInteger.ONE), power, power.add(BigInteger.ONE)};
+                BigInteger[] expected = {p.subtract(BigInteger.ONE), p, p};
+                for (int j = 0; j < xs.length; j++) {
+                    check("root(" + xs[j] + ", " + k + ")", expected[j], Num.root(num(xs[j]), k));
+                    if (k == 2)
+                        check("squareRoot(" + xs[j] + ")", expected[j], Num.squareRoot(num(xs[j])));
+                    // truncated towards zero for a negative number and an odd k
+                    if (k % 2 == 1)
+                        check("root(" + xs[j].negate() + ", " + k + ")", expected[j].negate(),
+                                Num.root(num(xs[j].negate()), k));
+                }
+                if (k % 2 == 0)
+                    checkBoolean("isPerfectSquare(" + power + ")", true, num(power).isPerfectSquare());
+            }
+        }
+        checkBoolean("root(-16, 2)", true, Num.root(new Num(-16), 2) == null);
+        expectException("root(16, 0)", ArithmeticException.class, () -> Num.root(new Num(16), 0));
+    }
+
+    static void dotProducts() {
+        for (int i = 0; i < 300; i++) {
+            int n = RANDOM.nextInt(6);
+            BigInteger[] x = new BigInteger[n], y = new BigInteger[n];
+            for (int j = 0; j < n; j++) {
+                x[j] = random(1 + RANDOM.nextInt(i % 2 == 0 ? 18 : 80));
+                y[j] = random(1 + RANDOM.nextInt(i % 3 == 0 ? 18 : 80));
+                if (RANDOM.nextBoolean())
+                    x[j] = x[j].negate();
+                if (RANDOM.nextBoolean())
+                    y[j] = y[j].negate();
+            }
+            checkDot(x, y);
+            if (n > 0) {
+                BigInteger c = random(1 + RANDOM.nextInt(100));
+                if (RANDOM.nextBoolean())
+                    c = c.negate();
+                check("fma(" + x[0] + ", " + y[0] + ", " + c + ")", x[0].multiply(y[0]).add(c),
+                        Num.fma(num(x[0]), num(y[0]), num(c)));
+                // a*b - a*b cancels to zero
+                BigInteger ab = x[0].multiply(y[0]).negate();
+                check("fma(" + x[0] + ", " + y[0] + ", " + ab + ")", BigInteger.ZERO,
+                        Num.fma(num(x[0]), num(y[0]), num(ab)));
+                checkDot(new BigInteger[]{x[0], x[0]}, new BigInteger[]{y[0], y[0].negate()});
+            }
+        }
+        // the long prefix overflows addExact, multiplyExact, or reaches Long.MIN_VALUE
+        long big = 3_000_000_000L;
+        checkDot(longs(big, big, 7), longs(big, big, 5));
+        checkDot(longs(big, -big, -big), longs(big, big, big));
+        checkDot(longs(5_000_000_000L, 2), longs(5_000_000_000L, 3));
+        checkDot(longs(-(1L << 31), -(1L << 31), 1), longs(1L << 32, 1L << 32, 1));
+        checkDot(longs(-(1L << 31), 1), longs(1L << 32, 1));
+        checkDot(longs(-(1L << 31)), longs(1L << 32));
+        BigInteger nines = BigInteger.TEN.pow(100).subtract(BigInteger.ONE);
+        checkDot(new BigInteger[]{BigInteger.valueOf(big), BigInteger.valueOf(big), nines},
+                new BigInteger[]{BigInteger.valueOf(big), BigInteger.valueOf(big), nines.negate()});
+        // all nine operands, from 8 limbs to the Karatsuba threshold, fill every
+        // block of DEFERRED_ROWS rows with the largest partial products
+        for (int digits = 64; digits <= 400; digits += 17) {
+            BigInteger a = BigInteger.TEN.pow(digits).subtract(BigInteger.ONE);
+            BigInteger b = BigInteger.TEN.pow(digits + RANDOM.nextInt(30)).subtract(BigInteger.ONE);
+            checkDot(new BigInteger[]{a, b, a}, new BigInteger[]{b, a, a});
+            check("fma(" + a + ", " + b + ", " + b + ")", a.multiply(b).add(b), Num.fma(num(a), num(b), num(b)));
+        }
+        expectException("dot of different lengths", IllegalArgumentException.class,
+                () -> Num.dot(new Num[]{Num.ONE, Num.ONE}, new Num[]{Num.ONE}));
+    }
+
+    private static void checkDot(BigInteger[] x, BigInteger[] y) {
+        BigInteger expected = BigInteger.ZERO;
+        Num[] a = new Num[x.length], b = new Num[y.length];
+        for (int i = 0; i < x.length; i++) {
+            expected = expected.add(x[i].multiply(y[i]));
+            // the values of a long are compact, their products are summed in a long first
+            a[i] = x[i].bitLength() < 60 ? new Num(x[i].longValue()) : num(x[i]);
+            b[i] = y[i].bitLength() < 60 ? new Num(y[i].longValue()) : num(y[i]);
+        }
+        check("dot(" + Arrays.toString(x) + ", " + Arrays.toString(y) + ")", expected, Num.dot(a, b));
+    }
+
+    private static BigInteger[] longs(long... values) {
+        BigInteger[] result = new BigInteger[values.length];
+        for (int i = 0; i < values.length; i++)
+            result[i] = BigInteger.valueOf(values[i]);
+        return result;
+    }
+
+    /**
+     * Differences whose borrows run through long blocks of zero digits
+     */
+    static void borrows() {
+        for (int n = 16; n <= 200; n += 7) {
+            BigInteger power = BigInteger.TEN.pow(n);
+            BigInteger y = random(n - RANDOM.nextInt(n / 2)).add(BigInteger.ONE);
+            check("subtract(10^" + n + ", " + y + ")", power.subtract(y), Num.subtract(num(power), num(y)));
+            BigInteger low = BigInteger.TEN.pow(n / 3);
+            check("subtract(10^" + n + " + 10^" + n / 3 + ", 10^" + n / 3 + " + 1)", power.subtract(BigInteger.ONE),
+                    Num.subtract(num(power.add(low)), num(low.add(BigInteger.ONE))));
+        }
+    }
+
+    static void server() throws IOException {
+        SocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (NumServer server = new NumServer(loopback, 64, 30_000)) {
+            server.start();
+            // pipelined in one write, answered in order
+            checkStrings("pipelined requests", exchange(server.address(),
+                    "POSTFIX 13 12 * 48 3 / - 66 +",
+                    "INFIX ( 3 + 4 ) * 5",
+                    "POSTFIX 2 100 ^",
+                    "INFIX 7 - 10",
+                    "POSTFIX 1 +",
+                    "POSTFIX 1 2",
+                    "INFIX ( 1 + 2",
+                    "POSTFIX " + "1 ".repeat(40) + "+",
+                    "HEX 1 2 +",
+                    "POSTFIX 12345678901234567890 3 *"), Arrays.asList(
+                    "OK 206",
+                    "OK 35",
+                    "OK " + BigInteger.TWO.pow(100),
+                    "OK -3",
+                    "ERR IllegalArgumentException: Missing operand of +",
+                    "ERR IllegalArgumentException: Missing operator, 2 operands left",
+                    "ERR IllegalArgumentException: Unbalanced parenthesis",
+                    "ERR Request longer than 64 chars",
+                    "ERR IllegalArgumentException: Unknown request HEX",
+                    "OK 37037036703703703670"));
+            checkLong("requests", 10, server.requests());
+            checkLong("errors", 5, server.errors());
+        }
+        // a single evaluation at a time and no waiting request
+        try (NumServer server = new NumServer(loopback, 64, 30_000, 1, 0)) {
+            server.start();
+            checkStrings("superlinear requests beyond the limit", exchange(server.address(),
+                    "POSTFIX 2 10 ^", "POSTFIX 3 3 ^"), Arrays.asList("OK 1024", "ERR Server busy"));
+            checkStrings("products of 19 digits beyond the limit", exchange(server.address(),
+                    "POSTFIX 1234567890123456789 2 *", "POSTFIX 1234567890123456789 3 *"),
+                    Arrays.asList("OK 2469135780246913578", "ERR Server busy"));
+            // in place, so never busy
+            checkStrings("products of 18 digits", exchange(server.address(),
+                    "POSTFIX 123456789012345678 2 *", "POSTFIX 123456789012345678 3 *"),
+                    Arrays.asList("OK 246913578024691356", "OK 370370367037037034"));
+            checkStrings("sums of 20 digits", exchange(server.address(),
+                    "POSTFIX 12345678901234567890 1 +", "INFIX 12345678901234567890 - 1"),
+                    Arrays.asList("OK 12345678901234567891", "OK 12345678901234567889"));
+        }
+    }
+
+    /**
+     * Send the requests in one write and read a response line for each
+     *
+     * @return the responses without their latency field
+     */
+    private static List<String> exchange(SocketAddress address, String... requests) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, 30_000);
+            socket.setSoTimeout(30_000);
+            socket.getOutputStream().write((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> responses = new ArrayList<>();
+            for (int i = 0; i < requests.length; i++) {
+                String response = in.readLine();
+                String[] fields = response == null ? new String[0] : response.split(" ", 3);
+                responses.add(fields.length == 3 ? fields[0] + " " + fields[2] : response);
+            }
+            return responses;
+        }
+    }
+
+    static void output() throws IOException {
+        long[] bases = {10, 2, 7, 1000, 65536, 87654321, 1_000_000_000};
+        for (int i = 0; i < 300; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(i % 2 == 0 ? 20 : 80));
+            long base = bases[i % bases.length];
+            output("(" + x + ") in base " + base, x, num(x).convertBase((int) base), base);
+            output("(" + x.negate() + ")", x.negate(), num(x.negate()), 10);
+        }
+        // printList of the largest digit that does not fit a chunk any more
+        BigInteger huge = random(20_000).add(BigInteger.TEN.pow(19_999));
+        for (long base : new long[]{10, 87654321, 1_000_000_000})
+            output("20000 digits in base " + base, huge, num(huge).convertBase((int) base), base);
+        for (long x : new long[]{0, 7, -7, 1000, 999_999_999_999_999_999L, Long.MIN_VALUE})
+            output("Num(" + x + ")", BigInteger.valueOf(x), new Num(x), 10);
+        int threshold = NumKernels.offHeapThreshold;
+        NumKernels.offHeapThreshold = 1;
+        try (NumArena arena = new NumArena()) {
+            for (BigInteger x : new BigInteger[]{BigInteger.TEN.pow(27), random(100).negate(), huge})
+                output("off-heap " + x.bitLength() + " bits", x, num(x).offHeap(arena), 10);
+        } finally {
+            NumKernels.offHeapThreshold = threshold;
+        }
+    }
+
+    /**
+     * Check toString, both writeTo and printList(Writer) of a Num in the given base
+     */
+    private static void output(String name, BigInteger x, Num a, long base) throws IOException {
+        check(name, x, a);
+        StringWriter writer = new StringWriter();
+        a.writeTo(writer);
+        checkString(name + " writeTo(Writer)", x.toString(), writer.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.writeTo(bytes, StandardCharsets.UTF_16);
+        checkString(name + " writeTo(OutputStream, UTF-16)", x.toString(),
+                new String(bytes.toByteArray(), StandardCharsets.UTF_16));
+        StringWriter list = new StringWriter();
+        a.printList(list);
+        checkString(name + " printList", list(x, base), list.toString());
+    }
+
+    /**
+     * @return the output of printList for x in the given base
+     */
+    private static String list(BigInteger x, long base) {
+        List<BigInteger> digits = new ArrayList<>();
+        BigInteger rest = x.abs();
+        do {
+            BigInteger[] qr = rest.divideAndRemainder(BigInteger.valueOf(base));
+            digits.add(qr[1]);
+            rest = qr[0];
+        } while (rest.signum() != 0);
+        StringBuilder sb = new StringBuilder().append(base).append(": ");
+        for (int i = digits.size() - 1; i >= 0; i--)
+            sb.append(digits.get(i)).append(' ');
+        if (x.signum() < 0)
+            sb.append('-');
+        return sb.append(System.lineSeparator()).toString();
+    }
+
+    static void digits() {
+        int threshold = NumKernels.offHeapThreshold;
+        NumKernels.offHeapThreshold = 1;
+        try (NumArena arena = new NumArena()) {
+            for (int i = 0; i < 400; i++) {
+                BigInteger x = random(1 + RANDOM.nextInt(i % 5 == 0 ? 300 : 40));
+                if (x.signum() == 0)
+                    continue;
+                if (RANDOM.nextBoolean())
+                    x = x.negate();
+                switch (i % 4) {
+                    case 0:
+                        checkDigits("(" + x + ")", x, num(x));
+                        break;
+                    case 1:
+                        // convertBase takes a non-negative Num
+                        checkDigits("(" + x.abs() + ") in base 1000", x.abs(), num(x.abs()).convertBase(1000));
+                        break;
+                    case 2:
+                        checkDigits("(" + x + ") off-heap", x, num(x).offHeap(arena));
+                        break;
+                    default:
+                        checkDigits("Num(" + x.longValue() + ")", BigInteger.valueOf(x.longValue()), new Num(x.longValue()));
+                }
+            }
+            Num[] zeros = {Num.ZERO, new Num(0), new Num("0").convertBase(7), Num.subtract(new Num(5), new Num(5))};
+            for (Num zero : zeros) {
+                checkString("leadingDigits of zero", "0", zero.leadingDigits(3));
+                checkString("trailingDigits of zero", "0", zero.trailingDigits(3));
+                checkLong("digitCount of zero", 1, zero.digitCount());
+                expectException("log10Floor of zero", ArithmeticException.class, zero::log10Floor);
+            }
+        } finally {
+            NumKernels.offHeapThreshold = threshold;
+        }
+        expectException("leadingDigits(0)", IllegalArgumentException.class, () -> new Num(12).leadingDigits(0));
+        expectException("trailingDigits(-1)", IllegalArgumentException.class, () -> new Num(12).trailingDigits(-1));
+    }
+
+    private static void checkDigits(String name, BigInteger x, Num a) {
+        String digits = x.abs().toString();
+        int n = digits.length();
+        checkLong(name + " digitCount", n, a.digitCount());
+        checkLong(name + " log10Floor", n - 1, a.log10Floor());
+        for (int k : new int[]{1, 5, 9, 10, 50, n, n + 5}) {
+            checkString(name + " leadingDigits(" + k + ")", digits.substring(0, Math.min(k, n)), a.leadingDigits(k));
+            checkString(name + " trailingDigits(" + k + ")", digits.substring(Math.max(n - k, 0)), a.trailingDigits(k));
+        }
+    }
+
+    /**
+     * Cancel at the first checkpoint of each operation, the operands must be unchanged
+     */
+    static void cancellation() {
+        for (int i = 0; i < 50; i++) {
+            BigInteger x = random(30 + RANDOM.nextInt(30)).add(BigInteger.TEN.pow(29)).negate();
+            BigInteger y = random(18 + RANDOM.nextInt(10)).add(BigInteger.TEN.pow(18));
+            Num a = num(x), b = num(y), c = num(y.negate());
+            cancelled("mod(" + x + ", " + y + ")", () -> Num.mod(a, b));
+            cancelled("calcDivide(" + x + ", " + y.negate() + ")", () -> Num.calcDivide(a, c));
+            cancelled("power(" + x + ", 1000)", () -> Num.power(a, 1000));
+            Num d = num(y);
+            cancelled("convertBase(" + y + ", 1000)", () -> d.convertBase(1000));
+            check("cancelled operand a", x, a);
+            check("cancelled operand b", y, b);
+            check("cancelled operand c", y.negate(), c);
+            check("cancelled convertBase", y, d);
+        }
+    }
+
+    private static void cancelled(String name, Supplier<Num> operation) {
+        NumDeadline deadline = NumDeadline.unbounded();
+        checks++;
+        try {
+            deadline.call(() -> {
+                deadline.cancel();
+                return operation.get();
+            });
+            failures++;
+            System.out.println(name + ": expected CancellationException, completed");
+        } catch (CancellationException e) {
+            // stopped at a checkpoint
+        }
+    }
+
+    static void serverDeadline() throws IOException, InterruptedException {
+        try (NumServer server = new NumServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64, 30_000)) {
+            server.start();
+            // the exponent 2^100 is not a known literal, so the estimate is infinite
+            List<String> responses = exchange(server.address(), "POSTFIX 2 2 100 ^ ^", "POSTFIX 1 2 +");
+            checkBoolean("rejected by the estimate: " + responses.get(0), true,
+                    responses.get(0).startsWith("ERR CancellationException: Estimated"));
+            checkString("request after a rejected one", "OK 3", responses.get(1));
+            checkLong("timeouts", 1, server.timeouts());
+        }
+        // estimates far below the actual time, so the deadline stops the evaluation
+        inChildJvm("serverStopped", "-Dnum.nanosPerLimbOperation=1e-9");
+    }
+
+    static void serverStopped() throws IOException {
+        try (NumServer server = new NumServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64, 100)) {
+            server.start();
+            long start = System.nanoTime();
+            String response = exchange(server.address(), "POSTFIX 7 3000000 ^").get(0);
+            checkBoolean("stopped by the deadline: " + response, true, response.startsWith("ERR "));
+            checkLong("timeouts", 1, server.timeouts());
+            checkBoolean("answered within 10 s", true, System.nanoTime() - start < 10_000_000_000L);
+        }
+    }
+
+    static void expressions() {
+        check("evaluatePostfix(17 5 %)", BigInteger.valueOf(2), Num.evaluatePostfix(new String[]{"17", "5", "%"}));
+        for (String[] expr : new String[][]{{"17", "0", "5", "-", "%"}, {"17", "0", "%"}}) {
+            checks++;
+            try {
+                Num.evaluatePostfix(expr);
+                failures++;
+                System.out.println("evaluatePostfix(" + String.join(" ", expr) + "): expected ArithmeticException");
+            } catch (ArithmeticException e) {
+                // rejected
+            }
+        }
+    }
+
+    static void longOverloads() {
+        long[] small = {0, 1, -1, 7, -9, 10, 999_999_999, -1_000_000_007L, Long.MAX_VALUE / 10, Long.MIN_VALUE / 10};
+        for (int i = 0; i < 1000; i++) {
+            BigInteger x = random(1 + RANDOM.nextInt(80));
+            if (RANDOM.nextBoolean())
+                x = x.negate();
+            long m = RANDOM.nextBoolean() ? small[RANDOM.nextInt(small.length)]
+                    : RANDOM.nextLong() / 10;
+            BigInteger y = BigInteger.valueOf(m);
+            Num a = num(x);
+            String operands = "(" + x + ", " + m + ")";
+            check("add" + operands, x.add(y), Num.add(a, m));
+            check("subtract" + operands, x.subtract(y), Num.subtract(a, m));
+            check("product" + operands, x.multiply(y), Num.product(a, m));
+            check("add" + operands + " as Num", x.add(y), Num.add(a, Num.valueOf(m)));
+            if (m != 0)
+                check("divide" + operands, x.divide(y), Num.divide(a, m));
+            if (m > 0)
+                check("mod" + operands, x.abs().mod(y), Num.mod(num(x.abs()), m));
+        }
+    }
+
+    static void tuning() throws IOException {
+        checkLong("missing profile", 0, NumTuning.load(Path.of("no-such-directory", "profile.properties")).size());
+        Path file = Files.createTempFile("profile", ".properties");
+        try {
+            Files.write(file, ("num.testThreshold = 42 \nnum.testNegativeThreshold=-3\n"
+                    + "num.testTextThreshold=abc\n").getBytes(StandardCharsets.ISO_8859_1));
+            Properties profile = NumTuning.load(file);
+            checkLong("threshold of the profile", 42, NumTuning.threshold(profile, "num.testThreshold", 7));
+            checkLong("negative threshold", 7, NumTuning.threshold(profile, "num.testNegativeThreshold", 7));
+            checkLong("threshold not a number", 7, NumTuning.threshold(profile, "num.testTextThreshold", 7));
+            checkLong("threshold not in the profile", 7, NumTuning.threshold(profile, "num.testMissingThreshold", 7));
+            try {
+                System.setProperty("num.testThreshold", "9");
+                checkLong("system property over the profile", 9, NumTuning.threshold(profile, "num.testThreshold", 7));
+                System.setProperty("num.testThreshold", "0");
+                checkLong("invalid system property", 7, NumTuning.threshold(profile, "num.testThreshold", 7));
+            } finally {
+                System.clearProperty("num.testThreshold");
+            }
+            Files.write(file, "num.testThreshold=\\u12".getBytes(StandardCharsets.ISO_8859_1));
+            // the malformed escape is logged as a warning
+            Logger logger = Logger.getLogger(NumTuning.class.getName());
+            Level level = logger.getLevel();
+            logger.setLevel(Level.OFF);
+            try {
+                checkLong("malformed profile", 0, NumTuning.load(file).size());
+            } finally {
+                logger.setLevel(level);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void expectInvalid(String name, Path file, byte[] valid, int position, int value)
+            throws IOException {
+        Files.write(file, ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(position, value).array());
+        expectInvalid(name, file);
+    }
+
+    private static void expectInvalid(String name, Path file) throws IOException {
+        checks++;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            NumCodec.readAll(channel);
+            failures++;
+            System.out.println(name + ": expected IllegalArgumentException, file was read");
+        } catch (IllegalArgumentException e) {
+            // rejected
+        } catch (RuntimeException e) {
+            failures++;
+            System.out.println(name + ": expected IllegalArgumentException, got " + e);
+        }
+    }
+
+    private static void expectException(String name, Class<? extends RuntimeException> expected, Runnable operation) {
+        checks++;
+        try {
+            operation.run();
+            failures++;
+            System.out.println(name + ": expected " + expected.getSimpleName() + ", completed");
+        } catch (RuntimeException e) {
+            if (!expected.isInstance(e)) {
+                failures++;
+                System.out.println(name + ": expected " + expected.getSimpleName() + ", got " + e);
+            }
+        }
+    }
+
+    /**
+     * Run a test group in a new JVM with the given options, a failure of the child
+     * counts as one failure
+     */
+    private static void inChildJvm(String group, String... options) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(options));
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), TestNum.class.getName(), group));
+        int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+        checks++;
+        if (status != 0) {
+            failures++;
+            System.out.println(group + " in a child JVM exited with status " + status);
+        }
+    }
+
+    private static void check(String name, BigInteger expected, Num actual) {
+        checks++;
+        String result = actual == null ? "null" : actual.toString();
+        if (!result.equals(expected.toString())) {
+            failures++;
+            System.out.println(name + ": expected " + expected + ", got " + result);
+        }
+    }
+
+    private static void checkBoolean(String name, boolean expected, boolean actual) {
+        checks++;
+        if (expected != actual) {
+            failures++;
+            System.out.println(name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void checkLong(String name, long expected, long actual) {
+        checks++;
+        if (expected != actual) {
+            failures++;
+            System.out.println(name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void checkString(String name, String expected, String actual) {
+        checks++;
+        if (!expected.equals(actual)) {
+            failures++;
+            System.out.println(name + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private static void checkStrings(String name, List<String> expected, List<String> actual) {
+        for (int i = 0; i < expected.size(); i++)
+            checkString(name + " [" + i + "]", expected.get(i), i < actual.size() ? actual.get(i) : null);
+    }
+
+    /**
+     * @return F(n) mod m by the fast doubling of BigInteger
+     */
+    private static BigInteger fibonacciMod(long n, BigInteger m) {
+        BigInteger a = BigInteger.ZERO, b = BigInteger.ONE;
+        for (int bit = 63 - Long.numberOfLeadingZeros(n); bit >= 0; bit--) {
+            BigInteger c = a.multiply(b.shiftLeft(1).subtract(a)).mod(m);
+            BigInteger d = a.multiply(a).add(b.multiply(b)).mod(m);
+            a = ((n >>> bit) & 1) == 0 ? c : d;
+            b = ((n >>> bit) & 1) == 0 ? d : c.add(d).mod(m);
+        }
+        return a.mod(m);
+    }
+
+    /**
+     * @return true if 6k+1, 12k+1 and 18k+1 are prime
+     */
+    private static boolean chernickPrimes(BigInteger k) {
+        for (int factor : new int[]{6, 12, 18})
+            if (!BigInteger.valueOf(factor).multiply(k).add(BigInteger.ONE).isProbablePrime(100))
+                return false;
+        return true;
+    }
+
+    private static BigInteger binomial(int n, int k) {
+        BigInteger result = BigInteger.ONE;
+        for (int i = 1; i <= k; i++)
+            result = result.multiply(BigInteger.valueOf(n - k + i)).divide(BigInteger.valueOf(i));
+        return result;
+    }
+
+    /**
+     * @return a random non-negative number of at most the given number of digits
+     */
+    private static BigInteger random(int digits) {
+        StringBuilder sb = new StringBuilder(digits);
+        for (int i = 0; i < digits; i++)
+            sb.append(RANDOM.nextInt(10));
+        return new BigInteger(sb.toString());
+    }
+
+    private static Num num(BigInteger x) {
+        return new Num(x.toString());
+    }
+}
@@ -43,6 +43,12 @@ public class UtilClass {
     static BiFunction<Num, Num, Num> mod = Num::mod;
     static BiFunction<Num,Num, Num> power = Num::power;
     static Function<Num,Num> square = num1 -> Num.power(num1, 2);
+    static Function<Num, Num> factorial = num -> Num.factorial(Math.toIntExact(num.intValue()));
+    static Function<Num, Num> primorial = num -> Num.primorial(Math.toIntExact(num.intValue()));
+    static BiFunction<Num, Num, Num> shiftLeft = (num, bits) -> Num.shiftLeft(num, Math.toIntExact(bits.intValue()));
+    static BiFunction<Num, Num, Num> shiftRight = (num, bits) -> Num.shiftRight(num, Math.toIntExact(bits.intValue()));
+    static BiFunction<Num, Num, Num> and = Num::and;
+    static BiFunction<Num, Num, Num> or = Num::or;
     static Function<String[], String[]> applyShuntingYard = UtilClass::rpnUsingShuntingYard;
     static Function<String[], Num> evaluateExpression = UtilClass::evaluateExpression;
 
@@ -52,14 +58,20 @@ public class UtilClass {
      */
 
     public enum Operator {
-        ADD("+",1),
-        SUBTRACT("-", 2),
-        MULTIPLY("*", 3),
-        DIVIDE("/", 4),
-        MOD("%", 5),
-        POWER("^", 6),
-        LEFT_PARENTHESIS("(", 7),
-        RIGHT_PARENTHESIS(")", 8);
+        OR("|", 1),
+        AND("&", 2),
+        SHIFT_LEFT("<<", 3),
+        SHIFT_RIGHT(">>", 3),
+        ADD("+",4),
+        SUBTRACT("-", 5),
+        MULTIPLY("*", 6),
+        DIVIDE("/", 7),
+        MOD("%", 8),
+        POWER("^", 9),
+        LEFT_PARENTHESIS("(", 10),
+        RIGHT_PARENTHESIS(")", 11),
+        FACTORIAL("!", 12),
+        PRIMORIAL("#", 13);
         String sign;
         int order;
 
@@ -84,7 +96,20 @@ public class UtilClass {
             entry("*", Operator.MULTIPLY),
             entry("/", Operator.DIVIDE),
             entry("%", Operator.MOD),
-            entry("^", Operator.POWER));
+            entry("^", Operator.POWER),
+            entry("<<", Operator.SHIFT_LEFT),
+            entry(">>", Operator.SHIFT_RIGHT),
+            entry("&", Operator.AND),
+            entry("|", Operator.OR));
+
+    /**
+     * Postfix unary operators, they take only one operand and bind tighter than
+     * every binary operator
+     */
+
+    private static Map<String, Operator> unaryOpsMap = Map.ofEntries(
+            entry("!", Operator.FACTORIAL),
+            entry("#", Operator.PRIMORIAL));
 
 
     /**
@@ -104,6 +129,7 @@ public class UtilClass {
      * Shunting yard algorithm. See https://en.wikipedia.org/wiki/Shunting-yard_algorithm
      * @param expr representing the infix expression
      * @return string[] representing postfix expression
+     * @throws IllegalArgumentException if the parentheses are unbalanced
      */
 
     public static String[] rpnUsingShuntingYard(String[] expr) {
@@ -111,7 +137,11 @@ public class UtilClass {
         List<String> outputQueue = new LinkedList<>();
         for(String token : expr) {
             // check token
-            if(opsPrecedenceMap.containsKey(token)) {
+            if(unaryOpsMap.containsKey(token)) {
+                // postfix operator applies to the operand already in the output
+                outputQueue.add(token);
+            }
+            else if(opsPrecedenceMap.containsKey(token)) {
                 while (!stack.isEmpty() && isOp1HigherPrecOp2(stack.peek(), token)) {
                     outputQueue.add(stack.pop());
                 }
@@ -124,6 +154,8 @@ public class UtilClass {
                 while (!stack.isEmpty() && !stack.peek().equals(LEFT_PARENTHESIS.getSign())) {
                     outputQueue.add(stack.pop());
                 }
+                if (stack.isEmpty())
+                    throw new IllegalArgumentException("Unbalanced parenthesis");
                 // pop left parenthesis
                 stack.pop();
             }
@@ -133,13 +165,32 @@ public class UtilClass {
         }
 
         while (!stack.isEmpty()) {
+            if (stack.peek().equals(LEFT_PARENTHESIS.getSign()))
+                throw new IllegalArgumentException("Unbalanced parenthesis");
             outputQueue.add(stack.pop());
         }
-        System.out.println(outputQueue);
         return outputQueue.stream().toArray(String[]::new);
     }
 
 
+    /**
+     * @param token token of an expression
+     * @return true if the token is a binary or a postfix unary operator
+     */
+
+    static boolean isOperator(String token) {
+        return opsPrecedenceMap.containsKey(token) || unaryOpsMap.containsKey(token);
+    }
+
+    /**
+     * @param token token of an expression
+     * @return true if the token is a postfix unary operator
+     */
+
+    static boolean isUnaryOperator(String token) {
+        return unaryOpsMap.containsKey(token);
+    }
+
     /**
      * @param string input to check
      * @return true if the string is Number else return false
@@ -158,36 +209,69 @@ public class UtilClass {
      * evaluate the given postfix expression and return the result as Num
      * @param expr postfix expression
      * @return result of the expression as Num
-     * @throws IllegalFormatException if the input have extra operands
+     * @throws IllegalArgumentException if an operator misses an operand or the input have extra operands
      * @throws NumberFormatException if the input is not valid
      */
 
     private static Num evaluateExpression(String[] expr) {
         ArrayDeque<Num> stack = new ArrayDeque<>();
         for (String token : expr) {
-            if(opsPrecedenceMap.containsKey(token)){
-                Num b = stack.pop();
-                Num a = stack.pop();
+            NumDeadline.checkpoint();
+            if(unaryOpsMap.containsKey(token)) {
+                Num a = operand(stack, token);
+                switch (unaryOpsMap.get(token)) {
+                    case FACTORIAL:
+                        stack.push(factorial.apply(a));
+                        break;
+                    case PRIMORIAL:
+                        stack.push(primorial.apply(a));
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+            else if(opsPrecedenceMap.containsKey(token)){
+                Num b = operand(stack, token);
+                Num a = operand(stack, token);
                 Operator operator = opsPrecedenceMap.get(token);
                 switch (operator) {
+                    // the signed operations take a single pass when an operand is a small literal
                     case ADD:
-                        stack.push(add.apply(a,b));
+                        stack.push(Num.add(a,b));
                         break;
                     case SUBTRACT:
-                        stack.push(subtract.apply(a,b));
+                        stack.push(Num.subtract(a,b));
                         break;
                     case MULTIPLY:
-                        stack.push(multiply.apply(a,b));
+                        stack.push(Num.product(a,b));
                         break;
                     case DIVIDE:
-                        stack.push(divide.apply(a,b));
+                        if (b.isZero())
+                            throw new ArithmeticException("Division by zero");
+                        stack.push(Num.divide(a,b));
                         break;
                     case MOD:
-                        stack.push(mod.apply(a,b));
+                        if (b.isZero())
+                            throw new ArithmeticException("Division by zero");
+                        if (b.compareTo(Num.ZERO) < 0)
+                            throw new ArithmeticException("Negative modulus");
+                        stack.push(Num.mod(a,b));
                         break;
                     case POWER:
                         stack.push(power.apply(a,b));
                         break;
+                    case SHIFT_LEFT:
+                        stack.push(shiftLeft.apply(a,b));
+                        break;
+                    case SHIFT_RIGHT:
+                        stack.push(shiftRight.apply(a,b));
+                        break;
+                    case AND:
+                        stack.push(and.apply(a,b));
+                        break;
+                    case OR:
+                        stack.push(or.apply(a,b));
+                        break;
                     default:
                         throw new IllegalArgumentException();
                 }
@@ -199,7 +283,21 @@ public class UtilClass {
 
         if(!stack.isEmpty() && stack.size() == 1)
             return stack.pop();
+        else if(stack.isEmpty())
+            throw new IllegalArgumentException("Empty expression");
         else
-            throw new IllegalArgumentException();
+            throw new IllegalArgumentException("Missing operator, " + stack.size() + " operands left");
+    }
+
+    /**
+     * @param token operator taking the operand
+     * @return the top of the stack
+     * @throws IllegalArgumentException if the stack is empty
+     */
+
+    private static Num operand(ArrayDeque<Num> stack, String token) {
+        if(stack.isEmpty())
+            throw new IllegalArgumentException("Missing operand of " + token);
+        return stack.pop();
     }
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package sxv176330.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sxv176330.Num;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linear and multiplication tier operations of Num from 10 to 10^6 digits, each
+ * with the matching {@link BigInteger} operation as the baseline.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ArithmeticBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+    int digits;
+
+    String aString;
+    Num a, b;
+    BigInteger bigA, bigB;
+
+    /**
+     * exponent of 7 giving a power with about the same number of digits
+     */
+    long exponent;
+
+    @Setup
+    public void setup() {
+        aString = Operands.randomDigits(digits, 1);
+        String bString = Operands.randomDigits(digits, 2);
+        a = new Num(aString);
+        b = new Num(bString);
+        bigA = new BigInteger(aString);
+        bigB = new BigInteger(bString);
+        exponent = (long) (digits / Math.log10(7));
+    }
+
+    @Benchmark
+    public Num add() {
+        return Num.add(a, b);
+    }
+
+    @Benchmark
+    public BigInteger addBigInteger() {
+        return bigA.add(bigB);
+    }
+
+    @Benchmark
+    public Num subtract() {
+        return Num.subtract(a, b);
+    }
+
+    @Benchmark
+    public BigInteger subtractBigInteger() {
+        return bigA.subtract(bigB);
+    }
+
+    @Benchmark
+    public Num product() {
+        return Num.product(a, b);
+    }
+
+    @Benchmark
+    public BigInteger productBigInteger() {
+        return bigA.multiply(bigB);
+    }
+
+    @Benchmark
+    public Num power() {
+        return Num.power(new Num(7), exponent);
+    }
+
+    @Benchmark
+    public BigInteger powerBigInteger() {
+        return BigInteger.valueOf(7).pow((int) exponent);
+    }
+
+    @Benchmark
+    public String toStringNum() {
+        return a.toString();
+    }
+
+    @Benchmark
+    public String toStringBigInteger() {
+        return bigA.toString();
+    }
+
+    @Benchmark
+    public Num parse() {
+        return new Num(aString);
+    }
+
+    @Benchmark
+    public BigInteger parseBigInteger() {
+        return new BigInteger(aString);
+    }
+}
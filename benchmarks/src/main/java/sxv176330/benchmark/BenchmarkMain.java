@@ -0,0 +1,30 @@
+package sxv176330.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the regular JMH command line and always
+ * attaches the GC profiler so every result reports the allocation rate and the
+ * bytes allocated per operation next to the time. The forked JVMs resolve the
+ * Vector API module, so the SIMD kernels are measured unless {@code -jvmArgs
+ * -Dnum.vector=false} is given.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(cmd)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend("--add-modules=jdk.incubator.vector")
+                .build();
+        new Runner(options).run();
+    }
+}
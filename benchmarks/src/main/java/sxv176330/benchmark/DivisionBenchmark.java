@@ -0,0 +1,107 @@
+package sxv176330.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sxv176330.Num;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Division based operations of Num: divide, mod, squareRoot and convertBase. The
+ * dividend has twice the digits of the divisor. The default sizes stop at 10^3
+ * digits because the binary search tiers are quadratic in the quotient size, pass
+ * {@code -p digits=10000,100000,1000000} to measure the larger sizes.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DivisionBenchmark {
+
+    private static final BigInteger RADIX = BigInteger.valueOf(87654321);
+
+    @Param({"10", "100", "1000"})
+    int digits;
+
+    String aString;
+    Num a, b;
+    BigInteger bigA, bigB;
+
+    /**
+     * convertBase replaces the digits of the receiver, so it gets a fresh copy every call
+     */
+    Num convertTarget;
+
+    @Setup
+    public void setup() {
+        aString = Operands.randomDigits(2 * digits, 3);
+        String bString = Operands.randomDigits(digits, 4);
+        a = new Num(aString);
+        b = new Num(bString);
+        bigA = new BigInteger(aString);
+        bigB = new BigInteger(bString);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyConvertTarget() {
+        convertTarget = new Num(aString);
+    }
+
+    @Benchmark
+    public Num divide() {
+        return Num.divide(a, b);
+    }
+
+    @Benchmark
+    public BigInteger divideBigInteger() {
+        return bigA.divide(bigB);
+    }
+
+    @Benchmark
+    public Num mod() {
+        return Num.mod(a, b);
+    }
+
+    @Benchmark
+    public BigInteger modBigInteger() {
+        return bigA.mod(bigB);
+    }
+
+    @Benchmark
+    public Num squareRoot() {
+        return Num.squareRoot(a);
+    }
+
+    @Benchmark
+    public BigInteger squareRootBigInteger() {
+        return bigA.sqrt();
+    }
+
+    @Benchmark
+    public Num convertBase() {
+        return convertTarget.convertBase(87654321);
+    }
+
+    /**
+     * The same conversion as convertBase: the digits in base 87654321, least
+     * significant first, by repeated division
+     */
+    @Benchmark
+    public long[] convertBaseBigInteger() {
+        long[] digits = new long[aString.length()];
+        int len = 0;
+        BigInteger quotient = bigA;
+        while (quotient.signum() != 0) {
+            BigInteger[] qAndR = quotient.divideAndRemainder(RADIX);
+            digits[len++] = qAndR[1].longValue();
+            quotient = qAndR[0];
+        }
+        return Arrays.copyOf(digits, len);
+    }
+}
@@ -0,0 +1,49 @@
+package sxv176330.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sxv176330.Num;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Postfix and infix evaluation of the TestLP1 case 1 expression shape
+ * {@code ((a + b * c) * d + e * (f - g * h)) * i + j} with every literal of the
+ * given number of digits.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+    int digits;
+
+    String[] postfix, infix;
+
+    @Setup
+    public void setup() {
+        String[] v = new String[10];
+        for (int i = 0; i < v.length; i++)
+            v[i] = Operands.randomDigits(digits, 10 + i);
+        postfix = new String[]{v[0], v[1], v[2], "*", "+", v[3], "*", v[4], v[5], v[6], v[7], "*", "-", "*", "+",
+                v[8], "*", v[9], "+"};
+        infix = new String[]{"(", "(", v[0], "+", v[1], "*", v[2], ")", "*", v[3], "+", v[4], "*", "(", v[5], "-",
+                v[6], "*", v[7], ")", ")", "*", v[8], "+", v[9]};
+    }
+
+    @Benchmark
+    public Num evaluatePostfix() {
+        return Num.evaluatePostfix(postfix);
+    }
+
+    @Benchmark
+    public Num evaluateInfix() {
+        return Num.evaluateInfix(infix);
+    }
+}
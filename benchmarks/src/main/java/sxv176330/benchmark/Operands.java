@@ -0,0 +1,31 @@
+package sxv176330.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic operands for the benchmarks, the same seed gives the same digits
+ * so Num and BigInteger always see identical values.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+final class Operands {
+
+    private Operands() {
+    }
+
+    /**
+     * @param digits number of decimal digits
+     * @param seed   seed of the generator
+     * @return positive decimal string of exactly the given digits
+     */
+
+    static String randomDigits(int digits, long seed) {
+        Random random = new Random(seed);
+        char[] chars = new char[digits];
+        chars[0] = (char) ('1' + random.nextInt(9));
+        for (int i = 1; i < digits; i++)
+            chars[i] = (char) ('0' + random.nextInt(10));
+        return new String(chars);
+    }
+}
@@ -0,0 +1,104 @@
+package sxv176330.benchmark;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow loop of Num.calcDiff against a Vector API version resolving the borrows of
+ * a whole vector at once, in the way NumVectorKernels.add resolves the carries: with
+ * g the lanes below zero and p the lanes equal to zero, the lanes receiving a borrow
+ * are the bits of {@code ((g << 1) + borrowIn + p) ^ p}.
+ * <p>The scalar loop has no division, so the mask round trips are not paid back. On
+ * an AVX2 machine (four long lanes) the vector loop took more than twice the time:
+ * <pre>
+ *   digits      scalar     vector
+ *   1000        1.7 us     3.9 us
+ *   100000      180 us     440 us
+ *   1000000     1.77 ms    3.84 ms
+ * </pre>
+ * which is why calcDiff has no SIMD kernel.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SubtractKernelBenchmark {
+
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private static final int LANES = SPECIES.length();
+
+    private static final long LANE_MASK = (1L << LANES) - 1;
+
+    private static final long BASE = 10;
+
+    @Param({"1000", "100000", "1000000"})
+    int digits;
+
+    long[] x, y, res;
+
+    private VectorMask<Long>[] borrowMasks;
+
+    @Setup
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void setup() {
+        Random random = new Random(digits);
+        x = new long[digits];
+        y = new long[digits];
+        res = new long[digits];
+        for (int i = 0; i < digits; i++) {
+            x[i] = random.nextInt((int) BASE);
+            y[i] = random.nextInt((int) BASE);
+        }
+        // x > y, as calcDiff requires
+        x[digits - 1] = BASE - 1;
+        y[digits - 1] = 0;
+        borrowMasks = new VectorMask[1 << LANES];
+        for (int bits = 0; bits < borrowMasks.length; bits++)
+            borrowMasks[bits] = VectorMask.fromLong(SPECIES, bits);
+    }
+
+    @Benchmark
+    public long[] scalar() {
+        long borrow = 0;
+        for (int i = 0; i < digits; i++) {
+            long diff = x[i] - y[i] - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res[i] = diff + borrow * BASE;
+        }
+        return res;
+    }
+
+    @Benchmark
+    public long[] vector() {
+        long borrow = 0;
+        int i = 0;
+        for (int bound = SPECIES.loopBound(digits); i < bound; i += LANES) {
+            LongVector s = LongVector.fromArray(SPECIES, x, i).sub(LongVector.fromArray(SPECIES, y, i));
+            long g = s.compare(VectorOperators.LT, 0).toLong();
+            long p = s.compare(VectorOperators.EQ, 0).toLong();
+            long in = ((g << 1) + borrow + p) ^ p;
+            s = s.sub(1, borrowMasks[(int) (in & LANE_MASK)]);
+            s = s.add(BASE, s.compare(VectorOperators.LT, 0));
+            s.intoArray(res, i);
+            borrow = in >>> LANES;
+        }
+        for (; i < digits; i++) {
+            long diff = x[i] - y[i] - borrow;
+            borrow = diff < 0 ? 1 : 0;
+            res[i] = diff + borrow * BASE;
+        }
+        return res;
+    }
+}
@@ -0,0 +1,68 @@
+package sxv176330.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import sxv176330.Num;
+import sxv176330.TestLP1;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The six cases of {@link TestLP1} as single shot measurements, without the
+ * printing of the driver. Replaces the millisecond {@code TestLP1.Timer} with
+ * warmed up JMH measurements.
+ *
+ * @author Prateek
+ * @since 1.9
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TestLP1Benchmark {
+
+    private static final String[] CASE1 = {"98765432109876543210987654321", "5432109876543210987654321",
+            "345678901234567890123456789012", "*", "+", "246801357924680135792468013579", "*",
+            "12345678910111213141516171819202122", "191817161514131211109876543210", "13579", "24680", "*", "-",
+            "*", "+", "7896543", "*", "157984320", "+"};
+
+    private static final String[] CASE2 = {"(", "(", "98765432109876543210987654321", "+",
+            "5432109876543210987654321", "*", "345678901234567890123456789012", ")", "*",
+            "246801357924680135792468013579", "+", "12345678910111213141516171819202122", "*", "(",
+            "191817161514131211109876543210", "-", "13579", "*", "24680", ")", ")", "*", "7896543", "+", "157984320"};
+
+    @Benchmark
+    public void case1(Blackhole bh) {
+        Num x = Num.evaluatePostfix(CASE1);
+        bh.consume(Num.squareRoot(x));
+        bh.consume(Num.evaluatePostfix(CASE1).convertBase(1000));
+        bh.consume(Num.evaluatePostfix(CASE1).convertBase(87654321));
+    }
+
+    @Benchmark
+    public Num case2() {
+        return Num.evaluateInfix(CASE2);
+    }
+
+    @Benchmark
+    public Num case3() {
+        return TestLP1.fibonacci(100);
+    }
+
+    @Benchmark
+    public Num case4() {
+        return TestLP1.fibonacci(100000);
+    }
+
+    @Benchmark
+    public Num case5() {
+        return TestLP1.logFibonacci(524287);
+    }
+
+    @Benchmark
+    public Num case6() {
+        return Num.power(new Num(3), 999999);
+    }
+}